@@ -11,9 +11,23 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+
+val jmhImplementation by configurations.getting {
+    extendsFrom(configurations.implementation.get())
+}
+
 dependencies {
     implementation("io.netty:netty-all:4.1.111.Final")
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.3")
+
+    jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 application {
@@ -24,6 +38,39 @@ tasks.test {
     useJUnitPlatform()
 }
 
+/**
+ * Run JMH benchmarks from src/jmh/java. Results also go to build/reports/jmh/results.json
+ * (JMH's JSON format) so runs from different builds can be diffed.
+ * Usage: ./gradlew jmh [-Pjmh.include=KvStore] [-Pjmh.threads=8] [-Pjmh.args="-p valueSize=100 -f 3"]
+ */
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Run JMH benchmarks"
+
+    val results = layout.buildDirectory.file("reports/jmh/results.json")
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args(providers.gradleProperty("jmh.include").getOrElse(".*"))
+    args("-rf", "json", "-rff", results.get().asFile.absolutePath)
+    providers.gradleProperty("jmh.threads").orNull?.let { args("-t", it) }
+    providers.gradleProperty("jmh.args").orNull?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
+/**
+ * YCSB-style load generator against a server already running on localhost.
+ * Usage: ./gradlew loadgen -Ploadgen.args="--port=8080 --workload=b --rate=5000 --duration=60"
+ */
+tasks.register<JavaExec>("loadgen") {
+    group = "benchmark"
+    description = "Drive a local WarpKV server with a YCSB workload"
+
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass.set("com.neel.warpkv.server.LoadGenerator")
+    providers.gradleProperty("loadgen.args").orNull?.let { args(it.trim().split(Regex("\\s+"))) }
+}
+
 /**
  * Build an "uber" JAR without the Shadow plugin.
  * Usage: ./gradlew clean uberJar
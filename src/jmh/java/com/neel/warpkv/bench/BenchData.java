@@ -0,0 +1,61 @@
+package com.neel.warpkv.bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/** Keys, values and scratch directories shared by the benchmarks. */
+final class BenchData {
+    private BenchData() {}
+
+    /**
+     * Fixed-width key for index i, so keys sort in index order and can be written
+     * straight into a table. Even indexes are the loaded keys, odd ones are misses
+     * that still fall inside the table's key range (they get past the range check and
+     * exercise the bloom filter).
+     */
+    static byte[] key(long i, int keySize) {
+        byte[] k = new byte[Math.max(keySize, 8)];
+        k[0] = 'k';
+        for (int p = k.length - 1; p > 0; p--) {
+            k[p] = (byte) ('0' + i % 10);
+            i /= 10;
+        }
+        return k;
+    }
+
+    static byte[][] keys(int count, int keySize, boolean misses) {
+        byte[][] out = new byte[count][];
+        for (int i = 0; i < count; i++) out[i] = key(2L * i + (misses ? 1 : 0), keySize);
+        return out;
+    }
+
+    static byte[] value(int size) {
+        byte[] v = new byte[size];
+        ThreadLocalRandom.current().nextBytes(v);
+        return v;
+    }
+
+    static Path tempDir(String name) throws IOException {
+        return Files.createTempDirectory("warpkv-bench-" + name + "-");
+    }
+
+    static void deleteRecursively(Path dir) {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> {
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
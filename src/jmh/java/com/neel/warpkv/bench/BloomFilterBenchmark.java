@@ -0,0 +1,75 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.BloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BloomFilter add/mightContain, sized the way TableBuilder sizes a table's filter
+ * (10 bits per key, 7 hashes). Probes of absent keys run all the way to the first
+ * clear bit, so they cost less than probes of present ones.
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=BloomFilter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class BloomFilterBenchmark {
+
+    @Param({"100000", "1000000"})
+    int keyCount;
+
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"10"})
+    int bitsPerKey;
+
+    byte[][] keys;
+    byte[][] missKeys;
+    BloomFilter filled;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        keys = BenchData.keys(keyCount, keySize, false);
+        missKeys = BenchData.keys(keyCount, keySize, true);
+        filled = newFilter();
+        for (byte[] k : keys) filled.add(k);
+    }
+
+    BloomFilter newFilter() {
+        return new BloomFilter(Math.max(1024, keyCount * bitsPerKey), 7);
+    }
+
+    /** Adds go to a private filter (BloomFilter isn't thread-safe), reset every iteration. */
+    @State(Scope.Thread)
+    public static class Building {
+        BloomFilter filter;
+
+        @Setup(Level.Iteration)
+        public void reset(BloomFilterBenchmark b) {
+            filter = b.newFilter();
+        }
+    }
+
+    @Benchmark
+    public void add(Building s) {
+        s.filter.add(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public boolean mightContainHit() {
+        return filled.mightContain(keys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public boolean mightContainMiss() {
+        return filled.mightContain(missKeys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+}
@@ -0,0 +1,107 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.CompactionStyle;
+import com.neel.warpkv.storage.Durability;
+import com.neel.warpkv.storage.KvStore;
+import com.neel.warpkv.storage.StoreOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to flush one full memtable, and to compact a set of overlapping L0 tables, each
+ * on a fresh store per iteration (one operation per iteration, so divide entries by
+ * the reported time for entries/s). Auto compaction is off so nothing runs behind the
+ * measured operation.
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=FlushCompaction}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FlushCompactionBenchmark {
+
+    @Param({"100000"})
+    int entries;            // per memtable / per compaction input
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "1024"})
+    int valueSize;
+
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void setupValue() {
+        value = BenchData.value(valueSize);
+    }
+
+    /** A fresh store per iteration, auto compaction off. */
+    abstract static class FreshStore {
+        Path dir;
+        KvStore store;
+
+        void open(CompactionStyle style) throws IOException {
+            dir = BenchData.tempDir("flush");
+            store = new KvStore(dir, StoreOptions.defaults().compactionStyle(style).autoCompaction(false));
+            store.setFlushThreshold(Integer.MAX_VALUE);
+        }
+
+        /** Loads the active memtable with every stride-th key from offset. */
+        void fill(FlushCompactionBenchmark b, int stride, int offset) throws IOException {
+            for (int i = 0; i < b.entries; i++) {
+                store.put(BenchData.key((long) i * stride + offset, b.keySize), b.value, Durability.NONE);
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() {
+            store.close();
+            BenchData.deleteRecursively(dir);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Flush extends FreshStore {
+        @Setup(Level.Iteration)
+        public void load(FlushCompactionBenchmark b) throws IOException {
+            open(CompactionStyle.SIZE_TIERED);
+            fill(b, 1, 0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Compaction extends FreshStore {
+        @Param({"4", "8"})
+        int tables;
+
+        @Param({"SIZE_TIERED", "LEVELED"})
+        CompactionStyle style;
+
+        @Setup(Level.Iteration)
+        public void load(FlushCompactionBenchmark b) throws IOException {
+            open(style);
+            // Interleaved keys: every table spans the whole range, so the merge can't skip any.
+            for (int t = 0; t < tables; t++) {
+                fill(b, tables, t);
+                store.flushToSstable();
+            }
+        }
+    }
+
+    @Benchmark
+    public String flush(Flush f) throws IOException {
+        return f.store.flushToSstable();
+    }
+
+    @Benchmark
+    public int compact(Compaction c) throws IOException {
+        return c.store.compact();
+    }
+}
@@ -0,0 +1,114 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.BlockCache;
+import com.neel.warpkv.storage.Durability;
+import com.neel.warpkv.storage.KvStore;
+import com.neel.warpkv.storage.StoreOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end KvStore throughput. The store is loaded with keyCount keys flushed to an
+ * SST and another keyCount still in the active memtable, so gets can be aimed at
+ * either; misses use keys inside the same range that were never written.
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=KvStore -Pjmh.threads=8}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class KvStoreBenchmark {
+
+    @Param({"100000"})
+    int keyCount;
+
+    @Param({"16", "64"})
+    int keySize;
+
+    @Param({"100", "1024"})
+    int valueSize;
+
+    @Param({"64"})
+    int blockCacheMb;      // 0 = no block cache
+
+    Path dir;
+    KvStore store;
+    byte[][] sstKeys;
+    byte[][] memKeys;
+    byte[][] missKeys;
+    byte[] value;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchData.tempDir("kvstore");
+        StoreOptions options = StoreOptions.defaults()
+                .blockCache(blockCacheMb > 0 ? new BlockCache((long) blockCacheMb << 20) : null);
+        store = new KvStore(dir, options);
+        store.setFlushThreshold(Integer.MAX_VALUE); // flush only when told to while loading
+
+        byte[][] all = BenchData.keys(2 * keyCount, keySize, false);
+        sstKeys = new byte[keyCount][];
+        memKeys = new byte[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            sstKeys[i] = all[2 * i];
+            memKeys[i] = all[2 * i + 1];
+        }
+        missKeys = BenchData.keys(2 * keyCount, keySize, true);
+        value = BenchData.value(valueSize);
+
+        for (byte[] k : sstKeys) store.put(k, value, Durability.NONE);
+        store.flushToSstable();
+        for (byte[] k : memKeys) store.put(k, value, Durability.NONE);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        store.close();
+        BenchData.deleteRecursively(dir);
+    }
+
+    /** Put-only state, so the get benchmarks aren't multiplied by these params. */
+    @State(Scope.Benchmark)
+    public static class Writes {
+        @Param({"NONE", "ASYNC"})
+        Durability durability;
+
+        @Param({"100000"})
+        int flushThreshold;
+
+        @Setup(Level.Trial)
+        public void apply(KvStoreBenchmark b) {
+            b.store.setFlushThreshold(flushThreshold);
+        }
+    }
+
+    @Benchmark
+    public void put(Writes w) throws IOException {
+        // overwrites of loaded keys: memtable inserts, plus flushes and compactions as they come due
+        store.put(sstKeys[ThreadLocalRandom.current().nextInt(keyCount)], value, w.durability);
+    }
+
+    @Benchmark
+    public Optional<byte[]> getHitMemtable() {
+        return store.get(memKeys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public Optional<byte[]> getHitSst() {
+        return store.get(sstKeys[ThreadLocalRandom.current().nextInt(keyCount)]);
+    }
+
+    @Benchmark
+    public Optional<byte[]> getMiss() {
+        return store.get(missKeys[ThreadLocalRandom.current().nextInt(missKeys.length)]);
+    }
+}
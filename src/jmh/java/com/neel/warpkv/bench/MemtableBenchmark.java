@@ -0,0 +1,106 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.Durability;
+import com.neel.warpkv.storage.KvStore;
+import com.neel.warpkv.storage.Memtable;
+import com.neel.warpkv.storage.StoreOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memtable insert throughput: the old ConcurrentHashMap&lt;String, byte[]&gt; vs the sorted
+ * skiplist keyed on UTF-8 bytes, and the whole KvStore.put that the skiplist sits in.
+ *
+ * Every op starts from the same input: a fresh String key, as the server decodes it from
+ * the URL (so the hash map can't reuse a cached hash), and a shared value array. Each op
+ * then does what its store does with it: the old one hashed the String, the new one
+ * encodes it to UTF-8 and inserts under a new sequence number. Flush cost is measured
+ * separately by FlushCompactionBenchmark.
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=Memtable} and add {@code -t 8}
+ * style JMH flags to vary writer threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class MemtableBenchmark {
+
+    @Param({"100000"})
+    int keyCount;
+
+    @Param({"16", "256"})
+    int valueSize;
+
+    char[][] keys;
+    byte[] value;
+
+    ConcurrentHashMap<String, byte[]> hashMap;
+    volatile Memtable memtable;
+    AtomicLong seq;
+    Path dir;
+    KvStore store;
+
+    @Setup(Level.Trial)
+    public void setupKeys() {
+        keys = new char[keyCount][];
+        for (int i = 0; i < keyCount; i++) {
+            keys[i] = ("tenant:" + (i % 64) + ":user:" + Long.toHexString(ThreadLocalRandom.current().nextLong())).toCharArray();
+        }
+        value = BenchData.value(valueSize);
+    }
+
+    /** Fresh tables per iteration; the store flushes (in the background) as it normally would. */
+    @Setup(Level.Iteration)
+    public void resetTables() throws IOException {
+        hashMap = new ConcurrentHashMap<>();
+        memtable = new Memtable();
+        seq = new AtomicLong();
+        dir = BenchData.tempDir("memtable");
+        store = new KvStore(dir, StoreOptions.defaults().autoCompaction(false));
+        store.setFlushThreshold(keyCount);
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeStore() {
+        store.close();
+        BenchData.deleteRecursively(dir);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt(1 << 20);
+
+        String nextKey(char[][] keys) {
+            return new String(keys[(next++ & Integer.MAX_VALUE) % keys.length]);
+        }
+    }
+
+    @Benchmark
+    public void hashMapPut(Cursor c) {
+        hashMap.put(c.nextKey(keys), value);
+    }
+
+    @Benchmark
+    public void skiplistPut(Cursor c) {
+        Memtable m = memtable;
+        m.put(c.nextKey(keys).getBytes(StandardCharsets.UTF_8), seq.incrementAndGet(), value);
+        // every put is a new version: start over at the size the store would freeze it at
+        if (m.approximateCount() >= keyCount) memtable = new Memtable();
+    }
+
+    @Benchmark
+    public void storePut(Cursor c) throws IOException {
+        store.put(c.nextKey(keys).getBytes(StandardCharsets.UTF_8), value, Durability.NONE);
+    }
+}
@@ -0,0 +1,84 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.BlockCache;
+import com.neel.warpkv.storage.ChecksumVerification;
+import com.neel.warpkv.storage.Compression;
+import com.neel.warpkv.storage.SstReader;
+import com.neel.warpkv.storage.TableBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups against a single table: index search, block read (through the block
+ * cache when there is one) and in-block search for hits; the bloom filter for misses.
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=SstReader}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class SstReaderBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    int entries;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100"})
+    int valueSize;
+
+    @Param({"CHANNEL", "MMAP"})
+    SstReader.ReadMode readMode;
+
+    @Param({"64"})
+    int blockCacheMb;      // 0 = no block cache
+
+    @Param({"NONE"})
+    Compression compression;
+
+    Path dir;
+    SstReader reader;
+    byte[][] keys;
+    byte[][] missKeys;
+
+    @Setup(Level.Trial)
+    public void build() throws IOException {
+        dir = BenchData.tempDir("sst");
+        Path file = dir.resolve("bench.sst");
+        keys = BenchData.keys(entries, keySize, false);
+        missKeys = BenchData.keys(entries, keySize, true);
+        byte[] value = BenchData.value(valueSize);
+        try (TableBuilder b = new TableBuilder(file, TableBuilder.DEFAULT_BLOCK_SIZE, entries, compression)) {
+            for (int i = 0; i < entries; i++) b.add(keys[i], i + 1, value);
+            b.finish();
+        }
+        BlockCache cache = blockCacheMb > 0 ? new BlockCache((long) blockCacheMb << 20) : null;
+        reader = new SstReader(file, readMode, cache, ChecksumVerification.ALWAYS);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        reader.close();
+        BenchData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Optional<byte[]> getHit() throws IOException {
+        return reader.get(keys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+
+    @Benchmark
+    public Optional<byte[]> getMiss() throws IOException {
+        return reader.get(missKeys[ThreadLocalRandom.current().nextInt(entries)]);
+    }
+}
@@ -0,0 +1,69 @@
+package com.neel.warpkv.bench;
+
+import com.neel.warpkv.storage.Durability;
+import com.neel.warpkv.storage.Wal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wal.appendPut at each durability level. NONE only encodes the record (it never
+ * reaches the log), a baseline for the others. FSYNC is bounded by the device's fsync
+ * latency and only scales with threads through group commit, so compare it at
+ * several thread counts ({@code -Pjmh.threads=1}, {@code =8}, ...).
+ *
+ * Run with e.g. {@code ./gradlew jmh -Pjmh.include=Wal}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class WalBenchmark {
+
+    @Param({"NONE", "ASYNC", "FSYNC"})
+    Durability durability;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100", "1024"})
+    int valueSize;
+
+    Path dir;
+    Wal wal;
+    byte[][] keys;
+    byte[] value;
+    final AtomicLong seq = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dir = BenchData.tempDir("wal");
+        wal = new Wal(dir);
+        keys = BenchData.keys(1 << 16, keySize, false);
+        value = BenchData.value(valueSize);
+    }
+
+    /** Keep the log from eating the disk: start each iteration on a fresh segment. */
+    @Setup(Level.Iteration)
+    public void trim() throws IOException {
+        wal.deleteSegmentsBefore(wal.rotate());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        wal.close();
+        BenchData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void appendPut() throws IOException {
+        wal.appendPut(seq.incrementAndGet(), keys[ThreadLocalRandom.current().nextInt(keys.length)], value, durability);
+    }
+}
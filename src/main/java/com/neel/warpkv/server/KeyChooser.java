@@ -0,0 +1,121 @@
+package com.neel.warpkv.server;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks record numbers for {@link LoadGenerator}, YCSB style. Records 0..count-1
+ * exist; inserts take the next number. Zipfian is scrambled (the rank is hashed onto
+ * the key space) so the hot keys aren't all adjacent; latest favours the newest inserts.
+ * Record numbers become keys through {@link #key}.
+ */
+final class KeyChooser {
+  enum Distribution {
+    UNIFORM, ZIPFIAN, LATEST;
+
+    static Distribution parse(String s) {
+      if (s == null || s.isEmpty()) throw new IllegalArgumentException("distribution is empty");
+      return switch (s.toLowerCase(Locale.ROOT)) {
+        case "uniform" -> UNIFORM;
+        case "zipfian", "zipf" -> ZIPFIAN;
+        case "latest" -> LATEST;
+        default -> throw new IllegalArgumentException("unknown distribution: " + s);
+      };
+    }
+  }
+
+  static final double ZIPFIAN_CONSTANT = 0.99;
+
+  private final Distribution distribution;
+  private final AtomicLong count;
+  private final Zipfian zipfian;
+
+  KeyChooser(Distribution distribution, long records) {
+    if (records <= 0) throw new IllegalArgumentException("records must be > 0");
+    this.distribution = distribution;
+    this.count = new AtomicLong(records);
+    this.zipfian = distribution == Distribution.UNIFORM ? null : new Zipfian(records, ZIPFIAN_CONSTANT);
+  }
+
+  /** An existing record. */
+  long next() {
+    long n = count.get();
+    return switch (distribution) {
+      case UNIFORM -> ThreadLocalRandom.current().nextLong(n);
+      case ZIPFIAN -> Long.remainderUnsigned(fnv64(zipfian.next(n)), n);
+      case LATEST -> n - 1 - zipfian.next(n);
+    };
+  }
+
+  /** The record number for a new insert. */
+  long nextInsert() {
+    return count.getAndIncrement();
+  }
+
+  /** "user" + a hash of the record number, as YCSB names keys, so inserts spread out. */
+  static String key(long record) {
+    return "user" + Long.toUnsignedString(fnv64(record));
+  }
+
+  private static long fnv64(long v) {
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < 8; i++) {
+      h ^= v & 0xff;
+      h *= 0x100000001B3L;
+      v >>>= 8;
+    }
+    return h;
+  }
+
+  /**
+   * Gray et al.'s zipfian generator ("Quickly Generating Billion-Record Synthetic
+   * Databases"), as YCSB uses it: rank 0 is the most popular. zeta(n) is extended
+   * incrementally as inserts grow the item count.
+   */
+  static final class Zipfian {
+    private final double theta;
+    private final double alpha;
+    private final double zeta2;
+    private long items;
+    private double zetan;
+    private double eta;
+
+    Zipfian(long items, double theta) {
+      this.theta = theta;
+      this.alpha = 1.0 / (1.0 - theta);
+      this.zeta2 = zeta(0, 2, theta, 0);
+      this.items = items;
+      this.zetan = zeta(0, items, theta, 0);
+      this.eta = eta(items);
+    }
+
+    long next(long n) {
+      double zn, e;
+      synchronized (this) {
+        if (n > items) {
+          zetan = zeta(items, n, theta, zetan);
+          items = n;
+          eta = eta(n);
+        }
+        zn = zetan;
+        e = eta;
+      }
+      double u = ThreadLocalRandom.current().nextDouble();
+      double uz = u * zn;
+      if (uz < 1.0) return 0;
+      if (uz < 1.0 + Math.pow(0.5, theta)) return Math.min(1, n - 1);
+      return Math.min(n - 1, (long) (n * Math.pow(e * u - e + 1, alpha)));
+    }
+
+    private double eta(long n) {
+      return (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+    }
+
+    /** zeta(to) given zeta(from) = {@code sum}. */
+    private static double zeta(long from, long to, double theta, double sum) {
+      for (long i = from; i < to; i++) sum += 1 / Math.pow(i + 1, theta);
+      return sum;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.neel.warpkv.server;
+
+import java.io.PrintStream;
+
+/**
+ * HdrHistogram-style latency recorder for {@link LoadGenerator}: microsecond values,
+ * exact below 256 us and within 1/128 (~0.8%) above, up to ~71 minutes. Prints the
+ * same percentile distribution format as HdrHistogram's outputPercentileDistribution
+ * (.hgrm), so existing plotters read it. Thread-safe by locking; fine at load-tool rates.
+ */
+final class LatencyRecorder {
+  private static final int SUB_BITS = 7;
+  private static final int SUB = 1 << SUB_BITS;              // sub-buckets per power of two
+  private static final int MAX_BITS = 32;                    // values < 2^32 us
+  private static final int BUCKETS = 2 * SUB + (MAX_BITS - 1 - SUB_BITS) * SUB;
+
+  private final long[] counts = new long[BUCKETS];
+  private long total;
+  private long min = Long.MAX_VALUE;
+  private long max;
+  private double sum;
+  private double sumSquares;
+
+  synchronized void record(long micros) {
+    long v = Math.max(0, Math.min(micros, (1L << MAX_BITS) - 1));
+    counts[index(v)]++;
+    total++;
+    min = Math.min(min, v);
+    max = Math.max(max, v);
+    sum += v;
+    sumSquares += (double) v * v;
+  }
+
+  synchronized long count() {
+    return total;
+  }
+
+  synchronized double mean() {
+    return total == 0 ? 0 : sum / total;
+  }
+
+  synchronized long min() {
+    return total == 0 ? 0 : min;
+  }
+
+  synchronized long max() {
+    return max;
+  }
+
+  /** The value at {@code percentile} (0..100): the top of its bucket, capped at the max. */
+  synchronized long valueAtPercentile(double percentile) {
+    if (total == 0) return 0;
+    long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= target) return Math.min(highestEquivalent(i), max);
+    }
+    return max;
+  }
+
+  /**
+   * The percentile distribution as HdrHistogram prints it, values divided by
+   * {@code scale} (1000.0 for milliseconds).
+   */
+  synchronized void printDistribution(PrintStream out, double scale) {
+    out.printf("%12s %14s %10s %14s%n%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)");
+    double percentile = 0;
+    while (total > 0) {
+      long value = valueAtPercentile(percentile);
+      long below = countAtOrBelow(value);
+      if (below >= total) {
+        out.printf("%12.3f %2.12f %10d%n", value / scale, 1.0, total);
+        break;
+      }
+      out.printf("%12.3f %2.12f %10d %14.2f%n", value / scale, percentile / 100, below, 1 / (1 - percentile / 100));
+      // 5 ticks per halving of the distance to 100%, like HdrHistogram's default
+      long ticks = 5L << ((long) (Math.log(100.0 / (100.0 - percentile)) / Math.log(2)) + 1);
+      percentile += 100.0 / ticks;
+    }
+    double mean = mean();
+    double stddev = total == 0 ? 0 : Math.sqrt(Math.max(0, sumSquares / total - mean * mean));
+    out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean / scale, stddev / scale);
+    out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max / scale, total);
+    out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", MAX_BITS - SUB_BITS, SUB);
+  }
+
+  private long countAtOrBelow(long value) {
+    long n = 0;
+    for (int i = 0; i < BUCKETS && lowest(i) <= value; i++) n += counts[i];
+    return n;
+  }
+
+  private static int index(long v) {
+    if (v < 2 * SUB) return (int) v;
+    int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;  // >= 1
+    return 2 * SUB + (shift - 1) * SUB + (int) ((v >>> shift) - SUB);
+  }
+
+  private static long lowest(int i) {
+    if (i < 2 * SUB) return i;
+    int shift = (i - 2 * SUB) / SUB + 1;
+    return (long) (SUB + (i - 2 * SUB) % SUB) << shift;
+  }
+
+  private static long highestEquivalent(int i) {
+    if (i < 2 * SUB) return i;
+    int shift = (i - 2 * SUB) / SUB + 1;
+    return lowest(i) + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,447 @@
+package com.neel.warpkv.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * YCSB-style load generator for a WarpKV server on this machine.
+ *
+ * Runs one of the core workloads A..F (see {@link Workload}) against /kv/get, /kv/put
+ * and /kv/scan, after an optional load phase that inserts the records, or replays a
+ * recorded JSONL file. Two ways to drive it:
+ * - closed loop (default): --concurrency clients, each sending its next request when
+ *   the last one returns; latency is measured from the send.
+ * - open loop (--rate=N): requests are scheduled at a constant N ops/s regardless of
+ *   how fast the server answers, and latency is measured from each request's scheduled
+ *   time, so a stall shows up in every request it delayed (no coordinated omission).
+ *   --concurrency then only caps the requests in flight.
+ *
+ * Prints YCSB's summary lines per operation; --hgrm=DIR also writes each operation's
+ * full percentile distribution in HdrHistogram's .hgrm format.
+ *
+ * Replay/record format, one JSON object per line (string values, like /kv/batch NDJSON):
+ *   {"op":"get","k":"user1"}   {"op":"put","k":"user1","v":"..."}   {"op":"delete","k":"user1"}
+ *   {"op":"scan","start":"user1","limit":"10"}   {"op":"rmw","k":"user1","v":"..."}
+ * "put" may omit "v" (a value of --value-size is generated). Lines without a known op
+ * are skipped and counted. --record=FILE writes the generated requests in this format.
+ *
+ * Usage: LoadGenerator [--port=8080] [--workload=a] [--phase=both|load|run]
+ *          [--records=100000] [--operations=100000] [--duration=SECONDS]
+ *          [--distribution=zipfian|uniform|latest] [--value-size=100 | =64-1024]
+ *          [--rate=OPS_PER_SEC] [--concurrency=16] [--durability=none|async|fsync]
+ *          [--scan-length=100] [--replay=FILE] [--record=FILE] [--hgrm=DIR]
+ */
+public final class LoadGenerator {
+
+  enum Op { READ, UPDATE, INSERT, SCAN, READ_MODIFY_WRITE, DELETE }
+
+  /** One request; {@code value} for writes, {@code end}/{@code limit} for scans. */
+  record Request(Op op, String key, String value, String end, int limit) {}
+
+  private static final String USAGE = """
+      usage: LoadGenerator [--port=8080] [--workload=a..f] [--phase=both|load|run]
+               [--records=N] [--operations=N] [--duration=SECONDS]
+               [--distribution=zipfian|uniform|latest] [--value-size=N | =MIN-MAX]
+               [--rate=OPS_PER_SEC] [--concurrency=N] [--durability=none|async|fsync]
+               [--scan-length=N] [--replay=FILE] [--record=FILE] [--hgrm=DIR]
+      """;
+
+  private final URI base;
+  private final HttpClient http;
+  private final String durability;
+  private final Map<Op, LatencyRecorder> latency = new EnumMap<>(Op.class);
+  private final Map<Op, LongAdder> notFound = new EnumMap<>(Op.class);
+  private final Map<Op, LongAdder> errors = new EnumMap<>(Op.class);
+  private final LongAdder completed = new LongAdder();
+  private final AtomicLong errorsLogged = new AtomicLong();   // only the first few are printed
+  private PrintWriter recording;
+
+  private LoadGenerator(int port, String durability) {
+    this.base = URI.create("http://127.0.0.1:" + port);
+    this.durability = durability;
+    // The server closes each connection after its response, so HTTP/1.1 and no upgrade.
+    this.http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+    for (Op op : Op.values()) {
+      latency.put(op, new LatencyRecorder());
+      notFound.put(op, new LongAdder());
+      errors.put(op, new LongAdder());
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    try {
+      launch(parseArgs(args));
+    } catch (IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(2);
+    }
+  }
+
+  private static void launch(Map<String, String> opt) throws Exception {
+    if (opt.containsKey("help")) {
+      System.out.print(USAGE);
+      return;
+    }
+    int port = Integer.parseInt(opt.getOrDefault("port", "8080"));
+    Workload workload = Workload.parse(opt.getOrDefault("workload", "a"));
+    String phase = opt.getOrDefault("phase", "both");
+    long records = Long.parseLong(opt.getOrDefault("records", "100000"));
+    long operations = Long.parseLong(opt.getOrDefault("operations", "100000"));
+    long durationSec = Long.parseLong(opt.getOrDefault("duration", "0"));
+    KeyChooser.Distribution distribution = opt.containsKey("distribution")
+        ? KeyChooser.Distribution.parse(opt.get("distribution")) : workload.distribution;
+    int[] valueSize = parseRange(opt.getOrDefault("value-size", "100"));
+    double rate = Double.parseDouble(opt.getOrDefault("rate", "0"));
+    int concurrency = Integer.parseInt(opt.getOrDefault("concurrency", "16"));
+    String durability = opt.getOrDefault("durability", "");
+    int scanLength = Integer.parseInt(opt.getOrDefault("scan-length", "100"));
+    if (records <= 0 || concurrency <= 0 || scanLength <= 0 || rate < 0) {
+      throw new IllegalArgumentException("records, concurrency and scan-length must be > 0, rate >= 0");
+    }
+    if (!phase.equals("both") && !phase.equals("load") && !phase.equals("run")) {
+      throw new IllegalArgumentException("bad phase: " + phase + " (use both, load or run)");
+    }
+
+    LoadGenerator gen = new LoadGenerator(port, durability);
+    if (opt.containsKey("record")) {
+      gen.recording = new PrintWriter(Files.newBufferedWriter(Path.of(opt.get("record"))));
+    }
+    Values values = new Values(valueSize[0], valueSize[1]);
+
+    if (opt.containsKey("replay")) {
+      Replay replay = Replay.read(Path.of(opt.get("replay")), values);
+      System.out.printf("replaying %d requests from %s (%d lines skipped)%n",
+          replay.requests.size(), opt.get("replay"), replay.skipped);
+      gen.run("REPLAY", replay::next, Long.MAX_VALUE, durationSec, rate, concurrency, opt.get("hgrm"));
+    } else {
+      if (!phase.equals("run")) {
+        AtomicLong next = new AtomicLong();
+        gen.run("LOAD", () -> {
+          long r = next.getAndIncrement();
+          return r < records ? new Request(Op.INSERT, KeyChooser.key(r), values.next(), null, 0) : null;
+        }, records, 0, 0, concurrency, null);
+        gen.reset();
+      }
+      if (!phase.equals("load")) {
+        KeyChooser keys = new KeyChooser(distribution, records);
+        System.out.printf("workload %s, %s keys over %d records%n",
+            workload, distribution.name().toLowerCase(Locale.ROOT), records);
+        gen.run("RUN", () -> nextRequest(workload, keys, values, scanLength),
+            operations, durationSec, rate, concurrency, opt.get("hgrm"));
+      }
+    }
+    if (gen.recording != null) gen.recording.close();
+  }
+
+  private static Request nextRequest(Workload w, KeyChooser keys, Values values, int scanLength) {
+    Op op = w.pick(ThreadLocalRandom.current().nextDouble());
+    return switch (op) {
+      case INSERT -> new Request(op, KeyChooser.key(keys.nextInsert()), values.next(), null, 0);
+      case UPDATE, READ_MODIFY_WRITE -> new Request(op, KeyChooser.key(keys.next()), values.next(), null, 0);
+      case SCAN -> new Request(op, KeyChooser.key(keys.next()), null, null,
+          1 + ThreadLocalRandom.current().nextInt(scanLength));
+      default -> new Request(op, KeyChooser.key(keys.next()), null, null, 0);
+    };
+  }
+
+  /** Supplies requests; null when there are no more. Must be thread-safe. */
+  @FunctionalInterface
+  interface Source {
+    Request next();
+  }
+
+  private void run(String phase, Source source, long operations, long durationSec, double rate,
+                   int concurrency, String hgrmDir) throws Exception {
+    long deadline = durationSec > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSec) : Long.MAX_VALUE;
+    AtomicLong issued = new AtomicLong();
+    long start = System.nanoTime();
+    ScheduledExecutorService status = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "loadgen-status");
+      t.setDaemon(true);
+      return t;
+    });
+    long[] lastDone = {0};
+    status.scheduleAtFixedRate(() -> {
+      long done = completed.sum();
+      System.out.printf("[%s] %d sec: %d operations; %.1f current ops/sec%n", phase,
+          TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), done, (done - lastDone[0]) / 10.0);
+      lastDone[0] = done;
+    }, 10, 10, TimeUnit.SECONDS);
+
+    try {
+      if (rate > 0) {
+        // Open loop: request i is due at start + i / rate, whether or not earlier ones returned.
+        Semaphore inFlight = new Semaphore(concurrency);
+        double interval = 1e9 / rate;
+        for (long i = 0; i < operations; i++) {
+          long due = start + (long) (i * interval);
+          if (due >= deadline) break;
+          long wait;
+          while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+          Request r = source.next();
+          if (r == null) break;
+          inFlight.acquire();
+          issue(r, due).whenComplete((v, e) -> inFlight.release());
+        }
+        inFlight.acquire(concurrency);
+      } else {
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < concurrency; c++) {
+          Thread t = new Thread(() -> {
+            while (issued.getAndIncrement() < operations && System.nanoTime() < deadline) {
+              Request r = source.next();
+              if (r == null) break;
+              issue(r, System.nanoTime()).join();
+            }
+          }, "loadgen-client-" + c);
+          t.start();
+          clients.add(t);
+        }
+        for (Thread t : clients) t.join();
+      }
+    } finally {
+      status.shutdownNow();
+    }
+    report(phase, System.nanoTime() - start, hgrmDir);
+  }
+
+  /** Sends {@code r}; its latency counts from {@code startNanos}. Never completes exceptionally. */
+  private CompletableFuture<Void> issue(Request r, long startNanos) {
+    if (recording != null) record(r);
+    CompletableFuture<Integer> status = switch (r.op()) {
+      case READ -> send(get("/kv/get?k=" + enc(r.key())));
+      case UPDATE, INSERT -> send(put(r.key(), r.value()));
+      case DELETE -> send(request("/kv/delete?k=" + enc(r.key()) + durabilityParam())
+          .POST(HttpRequest.BodyPublishers.noBody()).build());
+      case SCAN -> send(get("/kv/scan?start=" + enc(r.key()) + "&limit=" + r.limit()
+          + (r.end() != null ? "&end=" + enc(r.end()) : "")));
+      case READ_MODIFY_WRITE -> send(get("/kv/get?k=" + enc(r.key())))
+          .thenCompose(code -> code == 200 || code == 404 ? send(put(r.key(), r.value())) : CompletableFuture.completedFuture(code));
+    };
+    return status.handle((code, e) -> {
+      latency.get(r.op()).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+      if (e != null || code >= 500 || (code >= 400 && code != 404)) {
+        if (errorsLogged.getAndIncrement() < 5) {
+          System.err.println(r.op() + " " + r.key() + " failed: " + (e != null ? e : "HTTP " + code));
+        }
+        errors.get(r.op()).increment();
+      } else if (code == 404) {
+        notFound.get(r.op()).increment();
+      }
+      completed.increment();
+      return null;
+    });
+  }
+
+  private CompletableFuture<Integer> send(HttpRequest req) {
+    return http.sendAsync(req, HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+  }
+
+  private HttpRequest.Builder request(String pathAndQuery) {
+    return HttpRequest.newBuilder(base.resolve(pathAndQuery)).timeout(Duration.ofSeconds(30));
+  }
+
+  private HttpRequest get(String pathAndQuery) {
+    return request(pathAndQuery).GET().build();
+  }
+
+  private HttpRequest put(String key, String value) {
+    return request("/kv/put?k=" + enc(key) + durabilityParam())
+        .POST(HttpRequest.BodyPublishers.ofString(value, StandardCharsets.UTF_8)).build();
+  }
+
+  private String durabilityParam() {
+    return durability.isEmpty() ? "" : "&durability=" + enc(durability);
+  }
+
+  private static String enc(String s) {
+    return URLEncoder.encode(s, StandardCharsets.UTF_8);
+  }
+
+  private synchronized void record(Request r) {
+    StringBuilder sb = new StringBuilder("{\"op\":");
+    Server.appendJsonString(sb, switch (r.op()) {
+      case READ -> "get";
+      case UPDATE -> "put";
+      case INSERT -> "insert";
+      case SCAN -> "scan";
+      case READ_MODIFY_WRITE -> "rmw";
+      case DELETE -> "delete";
+    });
+    sb.append(r.op() == Op.SCAN ? ",\"start\":" : ",\"k\":");
+    Server.appendJsonString(sb, r.key());
+    if (r.value() != null) {
+      sb.append(",\"v\":");
+      Server.appendJsonString(sb, r.value());
+    }
+    if (r.end() != null) {
+      sb.append(",\"end\":");
+      Server.appendJsonString(sb, r.end());
+    }
+    if (r.op() == Op.SCAN) sb.append(",\"limit\":\"").append(r.limit()).append('"');
+    recording.println(sb.append('}'));
+  }
+
+  private void reset() {
+    for (Op op : Op.values()) {
+      latency.put(op, new LatencyRecorder());
+      notFound.get(op).reset();
+      errors.get(op).reset();
+    }
+    completed.reset();
+  }
+
+  /** YCSB's summary lines, plus .hgrm files if asked for. */
+  private void report(String phase, long elapsedNanos, String hgrmDir) throws IOException {
+    PrintStream out = System.out;
+    long ops = completed.sum();
+    out.printf("[%s] RunTime(ms), %d%n", phase, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    out.printf("[%s] Throughput(ops/sec), %.1f%n", phase, ops / (elapsedNanos / 1e9));
+    for (Op op : Op.values()) {
+      LatencyRecorder h = latency.get(op);
+      if (h.count() == 0) continue;
+      String name = op.name().replace('_', '-');
+      out.printf("[%s] Operations, %d%n", name, h.count());
+      out.printf("[%s] AverageLatency(us), %.1f%n", name, h.mean());
+      out.printf("[%s] MinLatency(us), %d%n", name, h.min());
+      out.printf("[%s] MaxLatency(us), %d%n", name, h.max());
+      out.printf("[%s] 50thPercentileLatency(us), %d%n", name, h.valueAtPercentile(50));
+      out.printf("[%s] 95thPercentileLatency(us), %d%n", name, h.valueAtPercentile(95));
+      out.printf("[%s] 99thPercentileLatency(us), %d%n", name, h.valueAtPercentile(99));
+      out.printf("[%s] 99.9thPercentileLatency(us), %d%n", name, h.valueAtPercentile(99.9));
+      out.printf("[%s] 99.99thPercentileLatency(us), %d%n", name, h.valueAtPercentile(99.99));
+      long nf = notFound.get(op).sum(), err = errors.get(op).sum();
+      out.printf("[%s] Return=OK, %d%n", name, h.count() - nf - err);
+      if (nf > 0) out.printf("[%s] Return=NOT_FOUND, %d%n", name, nf);
+      if (err > 0) out.printf("[%s] Return=ERROR, %d%n", name, err);
+      if (hgrmDir != null) {
+        Path dir = Path.of(hgrmDir);
+        Files.createDirectories(dir);
+        Path file = dir.resolve(phase.toLowerCase(Locale.ROOT) + "-" + name.toLowerCase(Locale.ROOT) + ".hgrm");
+        try (PrintStream p = new PrintStream(Files.newOutputStream(file), false, StandardCharsets.UTF_8)) {
+          h.printDistribution(p, 1000.0); // milliseconds, as HdrHistogram's plotter expects
+        }
+      }
+    }
+  }
+
+  /** Random printable values, uniform in [min, max] bytes, sliced from a shared pool. */
+  static final class Values {
+    private static final int POOL = 1 << 20;
+    private final String pool;
+    private final int min, max;
+
+    Values(int min, int max) {
+      if (min < 0 || max < min || max > POOL) throw new IllegalArgumentException("bad value size " + min + "-" + max);
+      this.min = min;
+      this.max = max;
+      char[] c = new char[POOL];
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      for (int i = 0; i < POOL; i++) c[i] = (char) (' ' + 1 + rnd.nextInt(94)); // '!'..'~'
+      this.pool = new String(c);
+    }
+
+    String next() {
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      int len = min == max ? min : min + rnd.nextInt(max - min + 1);
+      int off = rnd.nextInt(POOL - len + 1);
+      return pool.substring(off, off + len);
+    }
+  }
+
+  /** A recorded request file, replayed once in file order (strictly so with --concurrency=1). */
+  static final class Replay {
+    final List<Request> requests = new ArrayList<>();
+    int skipped;
+    private final AtomicLong next = new AtomicLong();
+
+    static Replay read(Path file, Values values) throws IOException {
+      Replay replay = new Replay();
+      try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.isBlank()) continue;
+          Request r = null;
+          try {
+            r = parse(Server.parseFlatJson(line.trim()), values);
+          } catch (IllegalArgumentException e) {
+            // not a flat string-valued object: skipped below
+          }
+          if (r == null) replay.skipped++; else replay.requests.add(r);
+        }
+      }
+      return replay;
+    }
+
+    private static Request parse(Map<String, String> m, Values values) {
+      String op = m.get("op");
+      if (op == null) return null;
+      String key = m.getOrDefault("k", m.get("start"));
+      if (key == null || key.isEmpty()) return null;
+      String v = m.get("v");
+      return switch (op.toLowerCase(Locale.ROOT)) {
+        case "get", "read" -> new Request(Op.READ, key, null, null, 0);
+        case "put", "update" -> new Request(Op.UPDATE, key, v != null ? v : values.next(), null, 0);
+        case "insert" -> new Request(Op.INSERT, key, v != null ? v : values.next(), null, 0);
+        case "delete", "del" -> new Request(Op.DELETE, key, null, null, 0);
+        case "rmw", "read-modify-write" -> new Request(Op.READ_MODIFY_WRITE, key, v != null ? v : values.next(), null, 0);
+        case "scan" -> new Request(Op.SCAN, key, null, m.get("end"), Integer.parseInt(m.getOrDefault("limit", "100")));
+        default -> null;
+      };
+    }
+
+    Request next() {
+      long i = next.getAndIncrement();
+      return i < requests.size() ? requests.get((int) i) : null;
+    }
+  }
+
+  private static Map<String, String> parseArgs(String[] args) {
+    Map<String, String> out = new LinkedHashMap<>();
+    for (String a : args) {
+      if (!a.startsWith("--")) throw new IllegalArgumentException("unexpected argument: " + a);
+      int eq = a.indexOf('=');
+      out.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "" : a.substring(eq + 1));
+    }
+    return out;
+  }
+
+  private static int[] parseRange(String s) {
+    int dash = s.indexOf('-');
+    if (dash < 0) {
+      int n = Integer.parseInt(s);
+      return new int[]{n, n};
+    }
+    return new int[]{Integer.parseInt(s.substring(0, dash)), Integer.parseInt(s.substring(dash + 1))};
+  }
+}
@@ -1,6 +1,17 @@
 package com.neel.warpkv.server;
 
+import com.neel.warpkv.storage.BlockCache;
+import com.neel.warpkv.storage.ChecksumVerification;
+import com.neel.warpkv.storage.Checksums;
+import com.neel.warpkv.storage.CompactionStyle;
+import com.neel.warpkv.storage.Compression;
+import com.neel.warpkv.storage.Durability;
 import com.neel.warpkv.storage.KvStore;
+import com.neel.warpkv.storage.LatencyHistogram;
+import com.neel.warpkv.storage.Scan;
+import com.neel.warpkv.storage.SstReader;
+import com.neel.warpkv.storage.StoreOptions;
+import com.neel.warpkv.storage.WriteBatch;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -8,17 +19,24 @@ import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.*;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 public final class Server {
 
   private static final String VERSION = "warpkv 0.1.0";
+  private static final int SCAN_DEFAULT_LIMIT = 100;
+  private static final int SCAN_MAX_LIMIT = 1000;
 
   public static void main(String[] args) throws Exception {
     // Port and data dir (env/prop with sane defaults)
@@ -27,8 +45,37 @@ public final class Server {
     String dataProp = System.getProperty("warpkv.data", System.getenv().getOrDefault("WARPKV_DATA", "data"));
     Path dataDir = Path.of(dataProp).toAbsolutePath();
     Files.createDirectories(dataDir);
+    // Shared SST block cache size in bytes (0 disables it)
+    long blockCacheBytes = Long.getLong("warpkv.blockCacheBytes",
+        Long.parseLong(System.getenv().getOrDefault("WARPKV_BLOCK_CACHE_BYTES", String.valueOf(64L << 20))));
+    final BlockCache blockCache = new BlockCache(blockCacheBytes);
 
-    final KvStore store = new KvStore(dataDir);
+    // Default durability for /kv/put without ?durability= (none | async | fsync)
+    StoreOptions options = StoreOptions.defaults()
+        .defaultDurability(Durability.parse(System.getProperty("warpkv.durability",
+            System.getenv().getOrDefault("WARPKV_DURABILITY", "fsync"))))
+        .walSyncIntervalMillis(Long.getLong("warpkv.walSyncMs",
+            Long.parseLong(System.getenv().getOrDefault("WARPKV_WAL_SYNC_MS", "50"))))
+        // mmap SST reads (falls back to channel reads if mapping fails)
+        .sstReadMode(Boolean.parseBoolean(System.getProperty("warpkv.sst.mmap",
+            System.getenv().getOrDefault("WARPKV_SST_MMAP", "false")))
+            ? SstReader.ReadMode.MMAP : SstReader.ReadMode.CHANNEL)
+        // target data block size for new SSTs, 4096..16384 bytes
+        .blockSize(Integer.getInteger("warpkv.sst.blockSize",
+            Integer.parseInt(System.getenv().getOrDefault("WARPKV_SST_BLOCK_SIZE", "4096"))))
+        .blockCache(blockCache)
+        // background compaction: tiered | leveled
+        .compactionStyle(CompactionStyle.parse(System.getProperty("warpkv.compaction",
+            System.getenv().getOrDefault("WARPKV_COMPACTION", "tiered"))))
+        // data block codec for new SSTs: none | lz4 | deflate
+        .compression(Compression.parse(System.getProperty("warpkv.compression",
+            System.getenv().getOrDefault("WARPKV_COMPRESSION", "lz4"))))
+        // CRC32C checks on reads: always | cache_fill | off
+        .checksumVerification(ChecksumVerification.parse(System.getProperty("warpkv.checksums",
+            System.getenv().getOrDefault("WARPKV_CHECKSUMS", "always"))));
+
+    final KvStore store = new KvStore(dataDir, options);
+    final StoreOptions finalOptions = options;
     final int finalPort = port;
     final Path finalDataDir = dataDir;
 
@@ -39,7 +86,7 @@ public final class Server {
 
     System.out.printf("🚀 WarpKV %s listening on :%d (data dir: %s)%n", VERSION, finalPort, finalDataDir);
     System.out.printf("metrics: get=%d put=%d del=%d%n",
-        store.getCount.get(), store.putCount.get(), store.delCount.get());
+        store.getCount.sum(), store.putCount.sum(), store.delCount.sum());
 
     EventLoopGroup boss = new NioEventLoopGroup(1);
     EventLoopGroup worker = new NioEventLoopGroup();
@@ -53,7 +100,7 @@ public final class Server {
             @Override protected void initChannel(SocketChannel ch) {
               ChannelPipeline p = ch.pipeline();
               p.addLast(new HttpServerCodec());
-              p.addLast(new HttpObjectAggregator(1 << 20)); // 1 MiB
+              p.addLast(new HttpObjectAggregator(8 << 20)); // 8 MiB: room for /kv/batch bodies
               p.addLast(new SimpleChannelInboundHandler<FullHttpRequest>() {
                 @Override
                 protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) {
@@ -80,8 +127,21 @@ public final class Server {
                           port: %d
                           dataDir: %s
                           flushThreshold: %d
+                          durability: %s
+                          sstReadMode: %s
+                          sstBlockSize: %d
+                          blockCacheBytes: %d
+                          compaction: %s
+                          compression: %s
+                          checksums: %s
                           """
-                          .formatted(finalPort, finalDataDir, store.getFlushThreshold());
+                          .formatted(finalPort, finalDataDir, store.getFlushThreshold(),
+                              store.getDefaultDurability().name().toLowerCase(),
+                              finalOptions.sstReadMode().name().toLowerCase(),
+                              finalOptions.blockSize(), blockCache.capacity(),
+                              finalOptions.compactionStyle().name().toLowerCase(),
+                              finalOptions.compression().name().toLowerCase(),
+                              finalOptions.checksumVerification().name().toLowerCase());
                       res = plain(200, body);
 
                     } else if (uri.equals("/metrics")) {
@@ -92,20 +152,55 @@ public final class Server {
                           warpkv_put_total %d
                           # TYPE warpkv_delete_total counter
                           warpkv_delete_total %d
+                          # TYPE warpkv_scan_total counter
+                          warpkv_scan_total %d
+                          # TYPE warpkv_batch_total counter
+                          warpkv_batch_total %d
+                          # TYPE warpkv_compactions_total counter
+                          warpkv_compactions_total %d
+                          # TYPE warpkv_block_cache_hits_total counter
+                          warpkv_block_cache_hits_total %d
+                          # TYPE warpkv_block_cache_misses_total counter
+                          warpkv_block_cache_misses_total %d
+                          # TYPE warpkv_block_cache_evictions_total counter
+                          warpkv_block_cache_evictions_total %d
+                          # TYPE warpkv_block_cache_bytes gauge
+                          warpkv_block_cache_bytes %d
+                          # TYPE warpkv_block_cache_capacity_bytes gauge
+                          warpkv_block_cache_capacity_bytes %d
+                          # TYPE warpkv_checksum_verify_seconds_total counter
+                          warpkv_checksum_verify_seconds_total %.6f
+                          # TYPE warpkv_checksum_verify_bytes_total counter
+                          warpkv_checksum_verify_bytes_total %d
+                          # TYPE warpkv_checksum_failures_total counter
+                          warpkv_checksum_failures_total %d
                           """
-                          .formatted(store.getCount.get(), store.putCount.get(), store.delCount.get());
-                      res = plain(200, body);
+                          .formatted(store.getCount.sum(), store.putCount.sum(), store.delCount.sum(),
+                              store.scanCount.sum(), store.batchCount.sum(), store.compactionCount.sum(),
+                              blockCache.hits(), blockCache.misses(), blockCache.evictions(),
+                              blockCache.usedBytes(), blockCache.capacity(),
+                              Checksums.verifyNanos() / 1e9, Checksums.verifyBytes(), Checksums.verifyFailures());
+                      StringBuilder sb = new StringBuilder(body);
+                      appendHistogram(sb, "warpkv_get_hit_seconds", store.getHitLatency);
+                      appendHistogram(sb, "warpkv_get_miss_seconds", store.getMissLatency);
+                      appendHistogram(sb, "warpkv_put_seconds", store.putLatency);
+                      appendHistogram(sb, "warpkv_delete_seconds", store.deleteLatency);
+                      appendHistogram(sb, "warpkv_flush_seconds", store.flushLatency);
+                      appendHistogram(sb, "warpkv_compaction_seconds", store.compactionLatency);
+                      res = plain(200, sb.toString());
 
                     } else if (uri.equals("/admin/info")) {
                       String body = """
                           dataDir: %s
                           flushThreshold: %d
                           counts: get=%d put=%d del=%d
+                          tablesPerLevel: %s
+                          lastSequence: %d
                           at: %s
                           """
                           .formatted(finalDataDir, store.getFlushThreshold(),
-                              store.getCount.get(), store.putCount.get(), store.delCount.get(),
-                              Instant.now());
+                              store.getCount.sum(), store.putCount.sum(), store.delCount.sum(),
+                              store.tablesPerLevel(), store.lastSequence(), Instant.now());
                       res = plain(200, body);
 
                     } else if (uri.startsWith("/admin/flush-threshold")) {
@@ -122,19 +217,55 @@ public final class Server {
                       String name = store.flushToSstable();
                       res = plain(200, "flushed: " + name + "\n");
 
+                    } else if (uri.equals("/admin/compact")) {
+                      int n = store.compact();
+                      res = plain(200, "compactions: " + n + "\n");
+
+                    } else if (uri.equals("/admin/upgrade-ssts")) {
+                      int n = store.upgradeLegacySstables();
+                      res = plain(200, "upgraded: " + n + "\n");
+
                     } else if (uri.startsWith("/kv/put")) {
                       Map<String, String> q = parseQuery(uri);
                       String key = q.get("k");
+                      String d = q.get("durability");
+                      Durability durability = null;
+                      try {
+                        durability = d == null ? store.getDefaultDurability() : Durability.parse(d);
+                      } catch (IllegalArgumentException e) {
+                        // reported below as a 400
+                      }
                       if (key == null || key.isEmpty()) {
                         res = plain(400, "missing k\n");
+                      } else if (durability == null) {
+                        res = plain(400, "bad durability: use none, async or fsync\n");
                       } else {
+                        // the body is stored as-is: any bytes, no charset
                         byte[] bodyBytes = new byte[req.content().readableBytes()];
                         req.content().readBytes(bodyBytes);
-                        String value = new String(bodyBytes, StandardCharsets.UTF_8);
-                        store.put(key, value);
+                        store.put(key.getBytes(StandardCharsets.UTF_8), bodyBytes, durability);
                         res = plain(200, "ok");
                         System.out.printf("metrics: get=%d put=%d del=%d%n",
-                            store.getCount.get(), store.putCount.get(), store.delCount.get());
+                            store.getCount.sum(), store.putCount.sum(), store.delCount.sum());
+                      }
+
+                    } else if (uri.startsWith("/kv/delete")) {
+                      Map<String, String> q = parseQuery(uri);
+                      String key = q.get("k");
+                      String d = q.get("durability");
+                      Durability durability = null;
+                      try {
+                        durability = d == null ? store.getDefaultDurability() : Durability.parse(d);
+                      } catch (IllegalArgumentException e) {
+                        // reported below as a 400
+                      }
+                      if (key == null || key.isEmpty()) {
+                        res = plain(400, "missing k\n");
+                      } else if (durability == null) {
+                        res = plain(400, "bad durability: use none, async or fsync\n");
+                      } else {
+                        store.delete(key, durability);
+                        res = plain(200, "ok");
                       }
 
                     } else if (uri.startsWith("/kv/get")) {
@@ -143,14 +274,114 @@ public final class Server {
                       if (key == null || key.isEmpty()) {
                         res = plain(400, "missing k\n");
                       } else {
-                        var v = store.get(key);
+                        var v = store.get(key.getBytes(StandardCharsets.UTF_8));
                         if (v.isPresent()) {
-                          res = plain(200, v.get());
+                          res = bytes(200, v.get(), "application/octet-stream");
                         } else {
                           res = plain(404, "not found");
                         }
                         System.out.printf("metrics: get=%d put=%d del=%d%n",
-                            store.getCount.get(), store.putCount.get(), store.delCount.get());
+                            store.getCount.sum(), store.putCount.sum(), store.delCount.sum());
+                      }
+
+                    } else if (uri.startsWith("/kv/batch")) {
+                      // body: WriteBatch wire form (Content-Type application/octet-stream) or NDJSON,
+                      // one {"op":"put","k":..,"v":..} / {"op":"delete","k":..} per line
+                      if (req.method() != HttpMethod.POST) {
+                        res = plain(405, "use POST\n");   // before touching the body
+                      } else {
+                        Map<String, String> q = parseQuery(uri);
+                        String d = q.get("durability");
+                        Durability durability = null;
+                        try {
+                          durability = d == null ? store.getDefaultDurability() : Durability.parse(d);
+                        } catch (IllegalArgumentException e) {
+                          // reported below as a 400
+                        }
+                        WriteBatch batch = null;
+                        String error = null;
+                        if (durability != null) {
+                          String type = req.headers().get(HttpHeaderNames.CONTENT_TYPE, "");
+                          byte[] bodyBytes = new byte[req.content().readableBytes()];
+                          req.content().readBytes(bodyBytes);
+                          try {
+                            batch = type.startsWith("application/octet-stream")
+                                ? WriteBatch.decode(ByteBuffer.wrap(bodyBytes))
+                                : parseNdjsonBatch(new String(bodyBytes, StandardCharsets.UTF_8));
+                          } catch (IOException | IllegalArgumentException e) {
+                            error = e.getMessage();
+                          }
+                        }
+                        if (durability == null) {
+                          res = plain(400, "bad durability: use none, async or fsync\n");
+                        } else if (batch == null) {
+                          res = plain(400, "bad batch: " + error + "\n");
+                        } else {
+                          store.write(batch, durability);
+                          res = plain(200, "ok: " + batch.size() + " ops\n");
+                        }
+                      }
+
+                    } else if (uri.startsWith("/kv/scan")) {
+                      // ?start=&end= (end exclusive) or ?prefix=, plus limit and the cursor from
+                      // the previous page; the cursor is the last key returned, base64url.
+                      // encoding=base64 returns keys and values base64-encoded (binary data).
+                      Map<String, String> q = parseQuery(uri);
+                      boolean base64 = "base64".equals(q.get("encoding"));
+                      String prefix = q.get("prefix");
+                      int limit = -1;
+                      byte[] after = null;
+                      try {
+                        limit = Integer.parseInt(q.getOrDefault("limit", String.valueOf(SCAN_DEFAULT_LIMIT)));
+                        String cursor = q.get("cursor");
+                        if (cursor != null && !cursor.isEmpty()) {
+                          after = Base64.getUrlDecoder().decode(cursor);
+                        }
+                      } catch (IllegalArgumentException e) {
+                        // reported below as a 400
+                      }
+                      if (limit <= 0 || limit > SCAN_MAX_LIMIT) {
+                        res = plain(400, "bad limit: must be in [1, " + SCAN_MAX_LIMIT + "]\n");
+                      } else if (prefix != null && (q.containsKey("start") || q.containsKey("end"))) {
+                        res = plain(400, "use either prefix or start/end\n");
+                      } else {
+                        // resume just past the cursor key; fetch one extra row to know if there is more
+                        byte[] start = after != null ? Arrays.copyOf(after, after.length + 1) : utf8(q.get("start"));
+                        StringBuilder body = new StringBuilder("{\"items\":[");
+                        byte[] last = null;
+                        boolean more = false;
+                        try (Scan scan = prefix != null
+                            ? store.scanPrefix(utf8(prefix), start, limit + 1)
+                            : store.scan(start, utf8(q.get("end")), limit + 1)) {
+                          int n = 0;
+                          while (scan.next()) {
+                            if (n == limit) {
+                              more = true;
+                              break;
+                            }
+                            last = scan.keyBytes();
+                            if (n++ > 0) body.append(',');
+                            body.append("{\"key\":");
+                            appendJsonString(body, base64 ? Base64.getEncoder().encodeToString(last)
+                                : new String(last, StandardCharsets.UTF_8));
+                            body.append(",\"value\":");
+                            appendJsonString(body, base64 ? Base64.getEncoder().encodeToString(scan.valueBytes())
+                                : scan.value());
+                            body.append('}');
+                          }
+                        }
+                        body.append("],\"cursor\":");
+                        if (more) {
+                          body.append('"')
+                              .append(Base64.getUrlEncoder().withoutPadding()
+                                  .encodeToString(last))
+                              .append('"');
+                        } else {
+                          body.append("null");
+                        }
+                        body.append("}\n");
+                        res = bytes(200, body.toString().getBytes(StandardCharsets.UTF_8),
+                            "application/json; charset=utf-8");
                       }
 
                     } else {
@@ -162,6 +393,8 @@ public final class Server {
                   }
 
                   addCors(res);
+                  // we close after every response; say so, or keep-alive clients reuse a dead socket
+                  res.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
                   ctx.writeAndFlush(res).addListener(ChannelFutureListener.CLOSE);
                 }
               });
@@ -198,15 +431,162 @@ public final class Server {
     return out;
   }
 
+  /** One JSON object per non-blank line; see /kv/batch. */
+  private static WriteBatch parseNdjsonBatch(String body) throws IOException {
+    WriteBatch batch = new WriteBatch();
+    int lineNo = 0;
+    for (String line : body.split("\n")) {
+      lineNo++;
+      if (line.isBlank()) continue;
+      Map<String, String> op;
+      try {
+        op = parseFlatJson(line.strip());
+      } catch (IllegalArgumentException e) {
+        throw new IOException("line " + lineNo + ": " + e.getMessage());
+      }
+      String k = op.get("k");
+      if (k == null || k.isEmpty()) throw new IOException("line " + lineNo + ": missing k");
+      switch (op.getOrDefault("op", "put")) {
+        case "put" -> {
+          String v = op.get("v");
+          if (v == null) throw new IOException("line " + lineNo + ": missing v");
+          batch.put(k, v);
+        }
+        case "delete", "del" -> batch.delete(k);
+        default -> throw new IOException("line " + lineNo + ": bad op " + op.get("op"));
+      }
+    }
+    return batch;
+  }
+
+  /** Parses {"name":"string",...}; enough JSON for batch lines (string values only). */
+  static Map<String, String> parseFlatJson(String s) {
+    Map<String, String> out = new LinkedHashMap<>();
+    int[] pos = {0};
+    expect(s, pos, '{');
+    skipSpace(s, pos);
+    if (pos[0] < s.length() && s.charAt(pos[0]) == '}') {
+      pos[0]++;
+    } else {
+      while (true) {
+        String name = readJsonString(s, pos);
+        expect(s, pos, ':');
+        out.put(name, readJsonString(s, pos));
+        skipSpace(s, pos);
+        if (pos[0] < s.length() && s.charAt(pos[0]) == ',') {
+          pos[0]++;
+          continue;
+        }
+        expect(s, pos, '}');
+        break;
+      }
+    }
+    skipSpace(s, pos);
+    if (pos[0] != s.length()) throw new IllegalArgumentException("trailing characters at " + pos[0]);
+    return out;
+  }
+
+  private static String readJsonString(String s, int[] pos) {
+    expect(s, pos, '"');
+    StringBuilder sb = new StringBuilder();
+    int i = pos[0];
+    while (true) {
+      if (i >= s.length()) throw new IllegalArgumentException("unterminated string");
+      char c = s.charAt(i++);
+      if (c == '"') break;
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      if (i >= s.length()) throw new IllegalArgumentException("unterminated escape");
+      char e = s.charAt(i++);
+      switch (e) {
+        case '"', '\\', '/' -> sb.append(e);
+        case 'b' -> sb.append('\b');
+        case 'f' -> sb.append('\f');
+        case 'n' -> sb.append('\n');
+        case 'r' -> sb.append('\r');
+        case 't' -> sb.append('\t');
+        case 'u' -> {
+          if (i + 4 > s.length()) throw new IllegalArgumentException("bad \\u escape");
+          try {
+            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+          } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("bad \\u escape");
+          }
+          i += 4;
+        }
+        default -> throw new IllegalArgumentException("bad escape \\" + e);
+      }
+    }
+    pos[0] = i;
+    return sb.toString();
+  }
+
+  private static void expect(String s, int[] pos, char c) {
+    skipSpace(s, pos);
+    if (pos[0] >= s.length() || s.charAt(pos[0]) != c) {
+      throw new IllegalArgumentException("expected '" + c + "' at " + pos[0]);
+    }
+    pos[0]++;
+  }
+
+  private static void skipSpace(String s, int[] pos) {
+    while (pos[0] < s.length() && Character.isWhitespace(s.charAt(pos[0]))) pos[0]++;
+  }
+
+  static void appendJsonString(StringBuilder sb, String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> sb.append("\\\"");
+        case '\\' -> sb.append("\\\\");
+        case '\n' -> sb.append("\\n");
+        case '\r' -> sb.append("\\r");
+        case '\t' -> sb.append("\\t");
+        default -> {
+          if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+          else sb.append(c);
+        }
+      }
+    }
+    sb.append('"');
+  }
+
+  /** Prometheus histogram: cumulative buckets, then _sum (seconds) and _count. */
+  private static void appendHistogram(StringBuilder sb, String name, LatencyHistogram h) {
+    long[] counts = h.bucketCounts();
+    long sumNanos = h.sumNanos(); // read after the buckets; may include a few extra samples
+    sb.append("# TYPE ").append(name).append(" histogram\n");
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      double le = LatencyHistogram.upperBoundSeconds(i);
+      String bound = Double.isInfinite(le) ? "+Inf" : BigDecimal.valueOf(le).stripTrailingZeros().toPlainString();
+      sb.append(name).append("_bucket{le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+    }
+    sb.append(name).append("_sum ").append(String.format("%.6f", sumNanos / 1e9)).append('\n');
+    sb.append(name).append("_count ").append(cumulative).append('\n');
+  }
+
+  private static byte[] utf8(String s) {
+    return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+  }
+
   private static FullHttpResponse plain(int status, String body) {
-    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    return bytes(status, body.getBytes(StandardCharsets.UTF_8), "text/plain; charset=utf-8");
+  }
+
+  /** Sends {@code body} without copying it. */
+  private static FullHttpResponse bytes(int status, byte[] body, String contentType) {
     FullHttpResponse res = new DefaultFullHttpResponse(
         HttpVersion.HTTP_1_1,
         HttpResponseStatus.valueOf(status),
-        io.netty.buffer.Unpooled.wrappedBuffer(bytes)
+        io.netty.buffer.Unpooled.wrappedBuffer(body)
     );
-    res.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=utf-8");
-    res.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, bytes.length);
+    res.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+    res.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, body.length);
     return res;
   }
 
@@ -0,0 +1,54 @@
+package com.neel.warpkv.server;
+
+import java.util.Locale;
+
+/** The YCSB core workloads, as operation mixes for {@link LoadGenerator}. */
+enum Workload {
+  /** Update heavy: session store recording recent actions. */
+  A(0.50, 0.50, 0, 0, 0, KeyChooser.Distribution.ZIPFIAN),
+  /** Read mostly: photo tagging. */
+  B(0.95, 0.05, 0, 0, 0, KeyChooser.Distribution.ZIPFIAN),
+  /** Read only: user profile cache. */
+  C(1.0, 0, 0, 0, 0, KeyChooser.Distribution.ZIPFIAN),
+  /** Read latest: status updates, new records are the popular ones. */
+  D(0.95, 0, 0.05, 0, 0, KeyChooser.Distribution.LATEST),
+  /** Short ranges: threaded conversations, each scan starting at a chosen key. */
+  E(0, 0, 0.05, 0.95, 0, KeyChooser.Distribution.ZIPFIAN),
+  /** Read-modify-write: user database. */
+  F(0.50, 0, 0, 0, 0.50, KeyChooser.Distribution.ZIPFIAN);
+
+  final double read, update, insert, scan, readModifyWrite;
+  final KeyChooser.Distribution distribution;   // default for picking existing keys
+
+  Workload(double read, double update, double insert, double scan, double readModifyWrite,
+           KeyChooser.Distribution distribution) {
+    this.read = read;
+    this.update = update;
+    this.insert = insert;
+    this.scan = scan;
+    this.readModifyWrite = readModifyWrite;
+    this.distribution = distribution;
+  }
+
+  /** Picks an operation for a uniform random {@code u} in [0, 1). */
+  LoadGenerator.Op pick(double u) {
+    if ((u -= read) < 0) return LoadGenerator.Op.READ;
+    if ((u -= update) < 0) return LoadGenerator.Op.UPDATE;
+    if ((u -= insert) < 0) return LoadGenerator.Op.INSERT;
+    if ((u -= scan) < 0) return LoadGenerator.Op.SCAN;
+    if (readModifyWrite > 0) return LoadGenerator.Op.READ_MODIFY_WRITE;
+    return LoadGenerator.Op.READ; // rounding
+  }
+
+  /** Accepts "a".."f", optionally prefixed "workload". */
+  static Workload parse(String s) {
+    if (s == null || s.isEmpty()) throw new IllegalArgumentException("workload is empty");
+    String name = s.toUpperCase(Locale.ROOT);
+    if (name.startsWith("WORKLOAD")) name = name.substring("WORKLOAD".length());
+    try {
+      return valueOf(name);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("unknown workload: " + s + " (use a..f)");
+    }
+  }
+}
@@ -0,0 +1,173 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Read side of {@link BlockBuilder}: a decoded view over one block's contents
+ * (trailer already checked and stripped). The buffer may be a heap copy or a slice
+ * of a memory-mapped table; nothing is copied until a key or value is returned.
+ */
+final class Block {
+    private final ByteBuffer data;       // position 0 .. restartsStart are entries
+    private final int restartsStart;
+    private final int numRestarts;
+    private final boolean taggedValues;   // data blocks of revision >= 2 tables: see BlockBuilder
+    private final boolean sequenced;      // data blocks of revision >= 3 tables: seq after valueLen
+
+    Block(ByteBuffer contents, boolean taggedValues, boolean sequenced) throws IOException {
+        this.taggedValues = taggedValues;
+        this.sequenced = sequenced;
+        this.data = contents.slice().order(ByteOrder.BIG_ENDIAN);
+        int len = data.limit();
+        if (len < 4) throw new IOException("block too small: " + len);
+        this.numRestarts = data.getInt(len - 4);
+        long rs = (long) len - 4 - 4L * numRestarts;
+        if (numRestarts < 0 || rs < 0 || (numRestarts == 0 && rs != 0)) {
+            throw new IOException("bad restart count " + numRestarts);
+        }
+        this.restartsStart = (int) rs;
+    }
+
+    /** Contents size in bytes (what a block cache charges for it). */
+    int sizeInBytes() {
+        return data.limit();
+    }
+
+    /** Value for an exact key match ({@link Memtable#TOMBSTONE} if deleted), or null. */
+    byte[] get(byte[] key) throws IOException {
+        if (numRestarts == 0) return null; // empty block
+        Cursor c = new Cursor(restartOffset(floorRestart(key)));
+        while (c.next()) {
+            int cmp = Arrays.compareUnsigned(c.key, 0, c.keyLen, key, 0, key.length);
+            if (cmp == 0) return c.value();
+            if (cmp > 0) return null;
+        }
+        return null;
+    }
+
+    /** Last restart point whose (fully stored) key is <= key, or 0. Block must not be empty. */
+    private int floorRestart(byte[] key) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(key);
+        int lo = 0, hi = numRestarts - 1, start = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int off = restartOffset(mid);
+            ByteBuffer p = data.duplicate().position(off);
+            int shared = Varint.getInt(p);
+            int unshared = Varint.getInt(p);
+            Varint.getLong(p); // value length
+            if (sequenced) Varint.getLong(p);
+            if (shared != 0) throw new IOException("restart entry with shared prefix at " + off);
+            if (compare(data, p.position(), unshared, target) <= 0) {
+                start = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return start;
+    }
+
+    /** Visit every entry in order (keys and values are fresh copies; deletes pass a tombstone). */
+    void forEach(BiConsumer<byte[], byte[]> visitor) throws IOException {
+        Cursor c = new Cursor(0);
+        while (c.next()) visitor.accept(Arrays.copyOf(c.key, c.keyLen), c.value());
+    }
+
+    /** Cursor over all entries in order; key() and value() return fresh copies. */
+    EntryIterator iterator() {
+        return new EntryIterator() {
+            private Cursor c = new Cursor(0);
+            private boolean pending;   // seek() already positioned on the next entry
+
+            @Override public boolean next() throws IOException {
+                if (pending) {
+                    pending = false;
+                    return true;
+                }
+                return c.next();
+            }
+
+            @Override public byte[] key() { return Arrays.copyOf(c.key, c.keyLen); }
+
+            @Override public byte[] value() { return c.value(); }
+
+            @Override public long seq() { return c.seq; }
+
+            @Override public void seek(byte[] target) throws IOException {
+                pending = false;
+                c = new Cursor(numRestarts == 0 ? restartsStart : restartOffset(floorRestart(target)));
+                while (c.next()) {
+                    if (Arrays.compareUnsigned(c.key, 0, c.keyLen, target, 0, target.length) >= 0) {
+                        pending = true;
+                        return;
+                    }
+                }
+            }
+        };
+    }
+
+    private int restartOffset(int i) throws IOException {
+        int off = data.getInt(restartsStart + 4 * i);
+        if (off < 0 || off >= restartsStart) throw new IOException("bad restart offset " + off);
+        return off;
+    }
+
+    /** Walks entries from a restart point, rebuilding delta-encoded keys into a reused buffer. */
+    private final class Cursor {
+        private int pos;
+        byte[] key = new byte[64];
+        int keyLen;
+        private int valuePos;
+        private int valueLen;
+        private boolean deleted;
+        long seq;
+
+        Cursor(int start) {
+            this.pos = start;
+        }
+
+        boolean next() throws IOException {
+            if (pos >= restartsStart) return false;
+            ByteBuffer p = data.duplicate().position(pos);
+            int shared = Varint.getInt(p);
+            int unshared = Varint.getInt(p);
+            long vField = Varint.getLong(p);
+            long vLen = taggedValues ? vField >>> 1 : vField;
+            seq = sequenced ? Varint.getLong(p) : 0;
+            int keyPos = p.position();
+            if (shared > keyLen || vLen < 0 || keyPos + unshared + vLen > restartsStart) {
+                throw new IOException("corrupt block entry at " + pos);
+            }
+            if (shared + unshared > key.length) key = Arrays.copyOf(key, Math.max(key.length * 2, shared + unshared));
+            data.get(keyPos, key, shared, unshared);
+            keyLen = shared + unshared;
+            valuePos = keyPos + unshared;
+            valueLen = (int) vLen;
+            deleted = taggedValues && (vField & 1) != 0;
+            pos = valuePos + valueLen;
+            return true;
+        }
+
+        byte[] value() {
+            if (deleted) return Memtable.TOMBSTONE;
+            byte[] v = new byte[valueLen];
+            data.get(valuePos, v);
+            return v;
+        }
+    }
+
+    /** Unsigned compare of buf[off, off+len) against target's bytes, without copying. */
+    static int compare(ByteBuffer buf, int off, int len, ByteBuffer target) {
+        ByteBuffer k = buf.slice(off, len);
+        int mm = k.mismatch(target);
+        if (mm < 0) return 0;
+        if (mm >= len) return -1;                 // k is a proper prefix of target
+        if (mm >= target.remaining()) return 1;   // target is a proper prefix of k
+        return Integer.compare(k.get(mm) & 0xff, target.get(mm) & 0xff);
+    }
+}
@@ -0,0 +1,100 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Builds one prefix-compressed block of sorted entries.
+ *
+ * Entry: [shared:varint][unshared:varint][valueLen:varint][key delta][value], where
+ * {@code shared} is the number of leading bytes the key has in common with the
+ * previous key. Every RESTART_INTERVAL entries the key is stored in full (shared = 0)
+ * and its offset recorded, so readers can binary-search the restart points.
+ * Trailer: [restart offsets:int32 each][numRestarts:int32] (BIG_ENDIAN).
+ *
+ * In data blocks ({@code taggedValues}) the valueLen varint is (length << 1) | deleted,
+ * so a tombstone costs one bit, and is followed by a [seq:varint] with the entry's
+ * sequence number; index blocks store plain lengths and no sequence.
+ */
+final class BlockBuilder {
+    static final int RESTART_INTERVAL = 16;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream(4096);
+    private int[] restarts = new int[16];
+    private int numRestarts;
+    private int sinceRestart;
+    private int entries;
+    private byte[] lastKey = EMPTY;
+    private final boolean taggedValues;
+
+    BlockBuilder(boolean taggedValues) {
+        this.taggedValues = taggedValues;
+    }
+
+    void add(byte[] key, byte[] value) {
+        add(key, 0, value);
+    }
+
+    /** In a tagged block, {@code value} may be {@link Memtable#TOMBSTONE}; untagged blocks ignore seq. */
+    void add(byte[] key, long seq, byte[] value) {
+        int shared = 0;
+        if (sinceRestart < RESTART_INTERVAL && entries > 0) {
+            int mm = Arrays.mismatch(lastKey, key);
+            shared = mm < 0 ? key.length : mm;
+        } else {
+            if (numRestarts == restarts.length) restarts = Arrays.copyOf(restarts, numRestarts * 2);
+            restarts[numRestarts++] = buf.size();
+            sinceRestart = 0;
+        }
+        int unshared = key.length - shared;
+        Varint.put(buf, shared);
+        Varint.put(buf, unshared);
+        if (taggedValues) {
+            Varint.put(buf, ((long) value.length << 1) | (Memtable.isTombstone(value) ? 1 : 0));
+            Varint.put(buf, seq);
+        } else {
+            if (Memtable.isTombstone(value)) throw new IllegalArgumentException("tombstone in untagged block");
+            Varint.put(buf, value.length);
+        }
+        buf.write(key, shared, unshared);
+        buf.write(value, 0, value.length);
+        lastKey = key;
+        sinceRestart++;
+        entries++;
+    }
+
+    /** Bytes finish() would return right now. */
+    int estimatedSize() {
+        return buf.size() + (numRestarts + 1) * 4;
+    }
+
+    boolean isEmpty() {
+        return entries == 0;
+    }
+
+    byte[] lastKey() {
+        return lastKey;
+    }
+
+    byte[] finish() {
+        for (int i = 0; i < numRestarts; i++) writeInt(restarts[i]);
+        writeInt(numRestarts);
+        return buf.toByteArray();
+    }
+
+    void reset() {
+        buf.reset();
+        numRestarts = 0;
+        sinceRestart = 0;
+        entries = 0;
+        lastKey = EMPTY;
+    }
+
+    private void writeInt(int v) {
+        buf.write(v >>> 24);
+        buf.write(v >>> 16);
+        buf.write(v >>> 8);
+        buf.write(v);
+    }
+}
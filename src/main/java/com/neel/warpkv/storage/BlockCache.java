@@ -0,0 +1,183 @@
+package com.neel.warpkv.storage;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide cache of decoded SST blocks, keyed by (reader file id, block offset)
+ * and bounded by the total size of the cached block contents.
+ *
+ * Sharded by key hash, one lock per shard. Each shard is a segmented LRU: new blocks
+ * enter a probationary segment and only move to the protected segment (80% of the
+ * shard) when hit again, so a one-off scan churns through probation without
+ * evicting the hot working set. Each shard also chains its blocks per file, so
+ * closing a reader drops that file's blocks without scanning the rest.
+ */
+public final class BlockCache {
+    private static final int SHARDS = 16;             // power of two
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final long capacity;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    // ----- metrics -----
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** {@code capacityBytes == 0} disables caching (every lookup misses). */
+    public BlockCache(long capacityBytes) {
+        if (capacityBytes < 0) throw new IllegalArgumentException("capacityBytes must be >= 0");
+        this.capacity = capacityBytes;
+        for (int i = 0; i < SHARDS; i++) shards[i] = new Shard(capacityBytes / SHARDS);
+    }
+
+    public long capacity() { return capacity; }
+    public long hits() { return hits.sum(); }
+    public long misses() { return misses.sum(); }
+    public long evictions() { return evictions.sum(); }
+
+    /** Bytes of block contents currently cached. */
+    public long usedBytes() {
+        long n = 0;
+        for (Shard s : shards) {
+            synchronized (s) {
+                n += s.probationBytes + s.protectedBytes;
+            }
+        }
+        return n;
+    }
+
+    Block get(long fileId, long offset) {
+        Block b = shard(fileId, offset).get(fileId, offset);
+        if (b != null) hits.increment(); else misses.increment();
+        return b;
+    }
+
+    void put(long fileId, long offset, Block block) {
+        shard(fileId, offset).put(fileId, offset, block);
+    }
+
+    /** Drop every block of a closed reader (file ids are never reused, so this only frees space). */
+    void invalidateFile(long fileId) {
+        for (Shard s : shards) s.invalidate(fileId);
+    }
+
+    private Shard shard(long fileId, long offset) {
+        long h = fileId * 0x9E3779B97F4A7C15L + offset;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return shards[(int) (h >>> 60) & (SHARDS - 1)];
+    }
+
+    private record Key(long fileId, long offset) {}
+
+    private static final class Node {
+        final Key key;
+        final Block block;
+        final int charge;
+        boolean isProtected;
+        Node prev, next;
+        Node filePrev, fileNext;      // other blocks of the same file in this shard
+
+        Node(Key key, Block block) {
+            this.key = key;
+            this.block = block;
+            this.charge = block == null ? 0 : block.sizeInBytes();
+        }
+    }
+
+    /** Two intrusive LRU lists (head = most recent) over one map. */
+    private final class Shard {
+        private final long capacity;
+        private final long protectedCapacity;
+        private final HashMap<Key, Node> map = new HashMap<>();
+        private final HashMap<Long, Node> byFile = new HashMap<>(); // head of each file's chain
+        private final Node probation = sentinel();
+        private final Node protectedList = sentinel();
+        long probationBytes;
+        long protectedBytes;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+        }
+
+        synchronized Block get(long fileId, long offset) {
+            Node n = map.get(new Key(fileId, offset));
+            if (n == null) return null;
+            unlink(n);
+            if (n.isProtected) {
+                pushFront(protectedList, n);
+            } else {
+                probationBytes -= n.charge;
+                n.isProtected = true;
+                protectedBytes += n.charge;
+                pushFront(protectedList, n);
+                // Demote protected overflow back to probation (as most recent there).
+                while (protectedBytes > protectedCapacity && protectedList.prev != protectedList) {
+                    Node d = protectedList.prev;
+                    unlink(d);
+                    d.isProtected = false;
+                    protectedBytes -= d.charge;
+                    probationBytes += d.charge;
+                    pushFront(probation, d);
+                }
+            }
+            return n.block;
+        }
+
+        synchronized void put(long fileId, long offset, Block block) {
+            Node n = new Node(new Key(fileId, offset), block);
+            if (n.charge > capacity || map.containsKey(n.key)) return;
+            map.put(n.key, n);
+            n.fileNext = byFile.put(fileId, n);
+            if (n.fileNext != null) n.fileNext.filePrev = n;
+            pushFront(probation, n);
+            probationBytes += n.charge;
+            while (probationBytes + protectedBytes > capacity) {
+                Node victim = probation.prev != probation ? probation.prev : protectedList.prev;
+                remove(victim);
+                evictions.increment();
+            }
+        }
+
+        synchronized void invalidate(long fileId) {
+            for (Node n = byFile.remove(fileId); n != null; n = n.fileNext) {
+                map.remove(n.key);
+                unlink(n);
+                if (n.isProtected) protectedBytes -= n.charge; else probationBytes -= n.charge;
+            }
+        }
+
+        private void remove(Node n) {
+            map.remove(n.key);
+            unlink(n);
+            if (n.isProtected) protectedBytes -= n.charge; else probationBytes -= n.charge;
+            if (n.filePrev != null) n.filePrev.fileNext = n.fileNext;
+            else if (n.fileNext != null) byFile.put(n.key.fileId(), n.fileNext);
+            else byFile.remove(n.key.fileId());
+            if (n.fileNext != null) n.fileNext.filePrev = n.filePrev;
+        }
+    }
+
+    private static Node sentinel() {
+        Node s = new Node(null, null);
+        s.prev = s;
+        s.next = s;
+        return s;
+    }
+
+    private static void pushFront(Node list, Node n) {
+        n.next = list.next;
+        n.prev = list;
+        list.next.prev = n;
+        list.next = n;
+    }
+
+    private static void unlink(Node n) {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = n.next = null;
+    }
+}
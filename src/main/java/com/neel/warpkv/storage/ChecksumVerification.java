@@ -0,0 +1,28 @@
+package com.neel.warpkv.storage;
+
+import java.util.Locale;
+
+/** When reads check the CRC32C of SST blocks and WAL records (writers always store one). */
+public enum ChecksumVerification {
+    /** Every block read from disk or the page cache, and every replayed WAL record. */
+    ALWAYS,
+    /**
+     * Table metadata, WAL replay, compaction input and blocks entering the block cache;
+     * skips point-lookup reads that bypass the cache (mmap'd uncompressed blocks, or no
+     * cache at all), which are re-read every time anyway.
+     */
+    CACHE_FILL,
+    /** Nothing is verified; corruption only surfaces as parse errors. */
+    OFF;
+
+    /** Accepts the enum name in any case, plus "cache-fill" / "fill" and "none". */
+    public static ChecksumVerification parse(String s) {
+        if (s == null || s.isEmpty()) throw new IllegalArgumentException("checksum verification is empty");
+        return switch (s.toLowerCase(Locale.ROOT)) {
+            case "always", "all" -> ALWAYS;
+            case "cache_fill", "cache-fill", "fill" -> CACHE_FILL;
+            case "off", "none" -> OFF;
+            default -> throw new IllegalArgumentException("unknown checksum verification: " + s);
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package com.neel.warpkv.storage;
+
+import java.util.Locale;
+
+/** How a store's background compaction shapes its SSTs. */
+public enum CompactionStyle {
+    /** Merge runs of similar-sized, age-adjacent tables; cheap writes, more tables per read. */
+    SIZE_TIERED,
+    /**
+     * L0 holds flushed tables; L1..Ln are non-overlapping key ranges, each level 10x the
+     * previous. A point lookup touches every L0 table but at most one table per level.
+     */
+    LEVELED;
+
+    /** Accepts the enum name or the short forms "tiered" / "leveled". */
+    public static CompactionStyle parse(String s) {
+        if (s == null || s.isEmpty()) throw new IllegalArgumentException("compaction style is empty");
+        return switch (s.toLowerCase(Locale.ROOT)) {
+            case "size_tiered", "size-tiered", "tiered", "stcs" -> SIZE_TIERED;
+            case "leveled", "levelled", "lcs" -> LEVELED;
+            default -> throw new IllegalArgumentException("unknown compaction style: " + s);
+        };
+    }
+}
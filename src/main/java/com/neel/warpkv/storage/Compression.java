@@ -0,0 +1,107 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-block codec for SST data blocks; {@link #id()} is the codec byte in the block trailer.
+ *
+ * A compressed block is [rawLength:varint][codec payload]. Writers fall back to NONE for
+ * blocks that shrink by less than 1/8, so incompressible data costs nothing to read.
+ */
+public enum Compression {
+    /** Stored as-is. */
+    NONE(0),
+    /** LZ4 block format (pure Java, see {@link Lz4}): fast, roughly 2-4x on text. */
+    LZ4(1),
+    /** zlib via java.util.zip: slower, noticeably smaller output. */
+    DEFLATE(2);
+
+    private final byte id;
+
+    Compression(int id) {
+        this.id = (byte) id;
+    }
+
+    public byte id() {
+        return id;
+    }
+
+    static Compression fromId(byte id) throws IOException {
+        for (Compression c : values()) {
+            if (c.id == id) return c;
+        }
+        throw new IOException("unknown block codec " + id);
+    }
+
+    /** Accepts the enum name in any case, plus "zlib" for DEFLATE and "off" for NONE. */
+    public static Compression parse(String s) {
+        if (s == null || s.isEmpty()) throw new IllegalArgumentException("compression is empty");
+        return switch (s.toLowerCase(Locale.ROOT)) {
+            case "none", "off" -> NONE;
+            case "lz4" -> LZ4;
+            case "deflate", "zlib" -> DEFLATE;
+            default -> throw new IllegalArgumentException("unknown compression: " + s);
+        };
+    }
+
+    /** Encoded block, or null if this codec doesn't make it worth it (store it raw). */
+    byte[] compress(byte[] raw) {
+        if (this == NONE || raw.length == 0) return null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        Varint.put(out, raw.length);
+        if (this == LZ4) {
+            byte[] c = Lz4.compress(raw);
+            out.write(c, 0, c.length);
+        } else {
+            Deflater d = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                d.setInput(raw);
+                d.finish();
+                byte[] buf = new byte[Math.max(64, raw.length / 2)];
+                while (!d.finished()) {
+                    int n = d.deflate(buf);
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                d.end();
+            }
+        }
+        return out.size() <= raw.length - raw.length / 8 ? out.toByteArray() : null;
+    }
+
+    /** Decode a block written by {@link #compress}; the result is a heap buffer. */
+    ByteBuffer decompress(ByteBuffer stored) throws IOException {
+        if (this == NONE) return stored;
+        ByteBuffer in = stored.duplicate();
+        int rawLen = Varint.getInt(in);
+        byte[] raw = new byte[rawLen];
+        if (this == LZ4) {
+            Lz4.decompress(in, raw);
+        } else {
+            byte[] payload = new byte[in.remaining()];
+            in.get(payload);
+            Inflater inf = new Inflater();
+            try {
+                inf.setInput(payload);
+                int n = 0;
+                while (n < rawLen && !inf.finished()) {
+                    int r = inf.inflate(raw, n, rawLen - n);
+                    if (r == 0 && (inf.needsInput() || inf.needsDictionary())) break;
+                    n += r;
+                }
+                if (n != rawLen || !inf.finished()) throw new IOException("deflate block: got " + n + " of " + rawLen + " bytes");
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt deflate block: " + e.getMessage(), e);
+            } finally {
+                inf.end();
+            }
+        }
+        return ByteBuffer.wrap(raw);
+    }
+}
@@ -0,0 +1,24 @@
+package com.neel.warpkv.storage;
+
+import java.util.Locale;
+
+/** How much a write must survive before put/delete returns. */
+public enum Durability {
+    /** Skip the WAL entirely: lost on crash until the memtable is flushed (close() flushes). Fine for caches. */
+    NONE,
+    /** Queue in the WAL and return; a background thread writes + fsyncs every few ms. */
+    ASYNC,
+    /** Group-committed fsync before returning. */
+    FSYNC;
+
+    /** Accepts the enum name or the short forms used on the HTTP API (none/async/buffered/fsync/sync). */
+    public static Durability parse(String s) {
+        if (s == null || s.isEmpty()) throw new IllegalArgumentException("durability is empty");
+        return switch (s.toLowerCase(Locale.ROOT)) {
+            case "none", "off" -> NONE;
+            case "async", "buffered" -> ASYNC;
+            case "fsync", "sync" -> FSYNC;
+            default -> throw new IllegalArgumentException("unknown durability: " + s);
+        };
+    }
+}
@@ -0,0 +1,69 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Forward cursor over entries in ascending (unsigned) key order. Call next() before the
+ * first key(); key() and value() stay valid until the following next(). Deletes show up
+ * as entries whose value is a tombstone ({@link Memtable#isTombstone}).
+ */
+interface EntryIterator {
+    boolean next() throws IOException;
+
+    byte[] key();
+
+    byte[] value();
+
+    /** Sequence number of the current entry; 0 for data written before sequence numbers. */
+    long seq();
+
+    /** Reposition so that the following next() lands on the first key >= target. */
+    void seek(byte[] target) throws IOException;
+
+    /** Hides deletes, e.g. when nothing older is left for a tombstone to shadow. */
+    static EntryIterator withoutTombstones(EntryIterator it) {
+        return new EntryIterator() {
+            @Override public boolean next() throws IOException {
+                while (it.next()) {
+                    if (!Memtable.isTombstone(it.value())) return true;
+                }
+                return false;
+            }
+
+            @Override public byte[] key() { return it.key(); }
+
+            @Override public byte[] value() { return it.value(); }
+
+            @Override public long seq() { return it.seq(); }
+
+            @Override public void seek(byte[] target) throws IOException { it.seek(target); }
+        };
+    }
+
+    /** Adapts a sorted map (sorted legacy tables); every entry has seq 0. */
+    static EntryIterator of(NavigableMap<byte[], byte[]> sorted) {
+        return new EntryIterator() {
+            private Iterator<Map.Entry<byte[], byte[]>> it = sorted.entrySet().iterator();
+            private Map.Entry<byte[], byte[]> cur;
+
+            @Override public boolean next() {
+                cur = it.hasNext() ? it.next() : null;
+                return cur != null;
+            }
+
+            @Override public byte[] key() { return cur.getKey(); }
+
+            @Override public byte[] value() { return cur.getValue(); }
+
+            @Override public long seq() { return 0; }
+
+            @Override public void seek(byte[] target) {
+                it = sorted.tailMap(target, true).entrySet().iterator();
+                cur = null;
+            }
+        };
+    }
+}
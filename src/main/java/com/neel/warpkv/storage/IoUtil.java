@@ -0,0 +1,23 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Small file-system helpers shared by the storage classes. */
+final class IoUtil {
+    private IoUtil() {}
+
+    /**
+     * fsync a directory so file creations/renames/deletes in it survive a crash.
+     * Not supported on every platform (e.g. Windows); there it's a best-effort no-op.
+     */
+    static void fsyncDir(Path dir) {
+        try (FileChannel dc = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dc.force(true);
+        } catch (IOException ignored) {
+            // directories can't be opened for sync on some platforms
+        }
+    }
+}
@@ -2,59 +2,183 @@ package com.neel.warpkv.storage;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
- * KvStore = String-facing API on top of:
- *  - memtable (String -> byte[])
- *  - immutable SSTables (newest -> oldest)
+ * KvStore = byte[] key/value API (with UTF-8 String wrappers) on top of:
+ *  - write-ahead log (group-committed; replayed into the memtable on open)
+ *  - active memtable (sorted skiplist, UTF-8 key bytes -> value bytes)
+ *  - immutable memtables waiting to be flushed (newest -> oldest)
+ *  - immutable SSTables in levels: L0 = flushed tables (newest -> oldest, may overlap),
+ *    L1..Ln = non-overlapping key ranges (leveled compaction only); MANIFEST records
+ *    which tables are live and at which level
  *
- * - Storage stays binary (byte[]); we decode/encode at the boundary.
+ * - Storage is binary (byte[]) throughout; only the String overloads transcode.
+ * - Every write carries a sequence number (WAL record, memtable version, SST entry);
+ *   {@link #snapshot()} pins one for repeatable gets and scans.
  * - Provides the symbols Server.java expects (flush threshold, counters, etc.).
- * - Simple auto-flush when puts since last flush reach threshold.
+ * - When puts since the last flush reach the threshold, the active memtable is frozen
+ *   and swapped for a fresh one; a dedicated flush thread writes the frozen one out,
+ *   so no writer ever pays for SST I/O.
+ * - A compaction thread keeps the number of tables a get() has to probe bounded, either
+ *   size-tiered (merge runs of similar-sized, age-adjacent L0 tables) or leveled (push
+ *   L0 into L1 and each over-full level into the next); see {@link CompactionStyle}.
  */
 public final class KvStore implements AutoCloseable {
 
     // ----- metrics (Server.java reads these directly) -----
-    public final AtomicInteger getCount = new AtomicInteger();
-    public final AtomicInteger putCount = new AtomicInteger();
-    public final AtomicInteger delCount = new AtomicInteger();
+    // LongAdders: every request bumps one, and a shared CAS counter contends badly.
+    public final LongAdder getCount = new LongAdder();
+    public final LongAdder putCount = new LongAdder();
+    public final LongAdder delCount = new LongAdder();
+    public final LongAdder compactionCount = new LongAdder();
+    public final LongAdder scanCount = new LongAdder();
+    public final LongAdder batchCount = new LongAdder();
+
+    public final LatencyHistogram getHitLatency = new LatencyHistogram();
+    public final LatencyHistogram getMissLatency = new LatencyHistogram();
+    public final LatencyHistogram putLatency = new LatencyHistogram();
+    public final LatencyHistogram deleteLatency = new LatencyHistogram();
+    public final LatencyHistogram flushLatency = new LatencyHistogram();
+    public final LatencyHistogram compactionLatency = new LatencyHistogram();
 
     // ----- config / state -----
     private final Path dataDir;
+    private final StoreOptions options;
     private volatile int flushThreshold = 100;     // default; Server prints this at startup
-    private final ConcurrentMap<String, byte[]> memtable = new ConcurrentHashMap<>();
-    private final List<SstReader> sstables = new ArrayList<>();
+    private volatile Memtable memtable = new Memtable();
+    private final CopyOnWriteArrayList<Immutable> immutables = new CopyOnWriteArrayList<>(); // newest first
+    // Live tables as an immutable Version: L0 newest first, deeper levels sorted by key and
+    // non-overlapping. Reads pin the current one without locking (acquireVersion); only the
+    // flush and compaction threads install successors (installVersion). Tables compacted
+    // away are marked obsolete and deleted once the last version holding them is released.
+    private static final int NUM_LEVELS = 7;
+    private final AtomicReference<Version> version = new AtomicReference<>(Version.empty(NUM_LEVELS));
+    private final Manifest manifest;
+    private final Wal wal;
+
+    // Writers hold the read lock across "WAL append + memtable apply"; freezing a memtable
+    // takes the write lock just long enough to rotate the WAL and swap in a fresh memtable,
+    // so every record in the pre-rotation segments is in the frozen memtable.
+    private final ReentrantReadWriteLock walLock = new ReentrantReadWriteLock();
+
+    // Single thread, so frozen memtables are flushed oldest-first and SSTs stay in age order.
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "warpkv-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    // Writers stall once this many frozen memtables are queued (flush thread can't keep up).
+    private static final int MAX_IMMUTABLES = 4;
+    private final Object flushProgress = new Object();
+
+    // Size-tiered compaction: merge runs of MIN..MAX adjacent tables of similar size.
+    // Only this thread removes or replaces tables, so a picked run can't change under it.
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "warpkv-compact");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final int COMPACTION_MIN_INPUTS = 4;
+    private static final int COMPACTION_MAX_INPUTS = 32;
+    private static final long TIER_MIN_BYTES = 1 << 20;   // all tables below this form one tier
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+    // Leveled compaction: L0 -> L1 once L0 has L0_COMPACTION_TRIGGER tables; Li -> Li+1 once
+    // Li exceeds L1_TARGET_BYTES * LEVEL_SIZE_RATIO^(i-1). Outputs are cut at TARGET_FILE_BYTES.
+    private static final int L0_COMPACTION_TRIGGER = 4;
+    private static final long L1_TARGET_BYTES = 10L << 20;
+    private static final int LEVEL_SIZE_RATIO = 10;
+    private static final long TARGET_FILE_BYTES = 2L << 20;
+    // Per level, the last key compacted out of it, so picks rotate through the key space.
+    private final byte[][] compactPointer = new byte[NUM_LEVELS][];
+
+    // Sequence numbers: each write takes the next one and stays in flight until it is in the
+    // memtable. Snapshots see everything below the oldest in-flight write, so a sequence
+    // they pin never gains entries later. Allocation happens under the walLock read lock,
+    // so a freeze (write lock) never races an in-flight write.
+    private final Object sequenceLock = new Object();
+    private long lastSequence;                                  // guarded by sequenceLock
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
 
     // tracks how many puts since last flush (auto-flush trigger)
     private final AtomicInteger putsSinceFlush = new AtomicInteger();
 
+    // Flushed SSTs are sst_<stamp>.sst with strictly increasing stamps (ms clock, bumped on
+    // collision); compaction output takes its newest input's stamp plus a generation,
+    // sst_<stamp>-<gen>.sst, so it sorts exactly where the inputs were.
+    private final AtomicLong lastFileStamp = new AtomicLong();
+
     public KvStore(Path dataDir) throws IOException {
+        this(dataDir, StoreOptions.defaults());
+    }
+
+    public KvStore(Path dataDir, StoreOptions options) throws IOException {
         if (dataDir == null) throw new IllegalArgumentException("dataDir == null");
+        if (options == null) throw new IllegalArgumentException("options == null");
         this.dataDir = dataDir;
+        this.options = options;
         Files.createDirectories(dataDir);
+        this.manifest = new Manifest(dataDir);
         loadExistingSstables();
+        long maxSstSequence = manifest.lastSequence();
+        for (List<SstReader> level : version.get().levels()) {
+            for (SstReader r : level) maxSstSequence = Math.max(maxSstSequence, r.maxSequence());
+        }
+        this.wal = new Wal(dataDir, options.walSyncIntervalMillis());
+        this.lastSequence = wal.replay(maxSstSequence, options.checksumVerification() != ChecksumVerification.OFF, memtable::put);
+        maybeScheduleCompaction();
     }
 
     // Server expects a no-arg close() or try-with-resources friendly
     @Override
     public void close() {
-        synchronized (sstables) {
-            for (SstReader r : sstables) {
+        // Flush what is still in memory: Durability.NONE writes were never in the WAL, so
+        // this is the only way they survive. Each call flushes one more frozen memtable
+        // (an earlier failed flush can leave extras); on failure the WAL still has the rest.
+        if (!flusher.isShutdown()) {
+            try {
+                do flushToSstable(); while (!immutables.isEmpty());
+            } catch (IOException | RejectedExecutionException e) {
+                System.err.println("Flush on close failed: " + e.getMessage());
+            }
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+            compactor.shutdown();
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try { wal.close(); } catch (IOException ignored) {}
+        for (List<SstReader> level : version.get().levels()) {
+            for (SstReader r : level) {
                 try { r.close(); } catch (IOException ignored) {}
             }
         }
@@ -62,16 +186,60 @@ public final class KvStore implements AutoCloseable {
 
     // -------------------- Public API --------------------
 
-    public void put(String key, String value) {
+    // Keys and values are bytes end to end; the String methods are UTF-8 wrappers. Arrays
+    // passed to put/write are owned by the store afterwards (no copy): don't modify them.
+
+    /** Put with the store's default durability (see {@link StoreOptions#defaultDurability()}). */
+    public void put(String key, String value) throws IOException {
+        put(key, value, options.defaultDurability());
+    }
+
+    public void put(String key, String value, Durability durability) throws IOException {
         if (key == null) throw new IllegalArgumentException("key == null");
         if (value == null) throw new IllegalArgumentException("value == null");
-        memtable.put(key, value.getBytes(StandardCharsets.UTF_8));
-        putCount.incrementAndGet();
+        put(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8), durability);
+    }
 
-        // basic auto-flush
+    public void put(byte[] key, byte[] value) throws IOException {
+        put(key, value, options.defaultDurability());
+    }
+
+    /** Copies the remaining bytes of each buffer (positions are left unchanged). */
+    public void put(ByteBuffer key, ByteBuffer value, Durability durability) throws IOException {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        if (value == null) throw new IllegalArgumentException("value == null");
+        put(toArray(key), toArray(value), durability);
+    }
+
+    /**
+     * The WAL record is written according to {@code durability} (FSYNC: group-committed
+     * fsync before returning) and only then applied to the memtable.
+     */
+    public void put(byte[] key, byte[] value, Durability durability) throws IOException {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        if (value == null) throw new IllegalArgumentException("value == null");
+        if (durability == null) throw new IllegalArgumentException("durability == null");
+        if (Memtable.isTombstone(value)) value = new byte[0]; // a real empty value, not a delete
+        long start = System.nanoTime();
+        walLock.readLock().lock();
+        try {
+            long seq = beginWrite(1);
+            try {
+                wal.appendPut(seq, key, value, durability);
+                memtable.put(key, seq, value);
+            } finally {
+                endWrite(seq);
+            }
+        } finally {
+            walLock.readLock().unlock();
+        }
+        putCount.increment();
+        putLatency.recordSince(start);
+
+        // auto-flush: freeze + hand off; the SST is written on the flush thread
         if (putsSinceFlush.incrementAndGet() >= flushThreshold) {
             try {
-                flushToSstable();
+                maybeScheduleFlush();
             } catch (IOException e) {
                 // Log and keep going; the data is still in memtable
                 System.err.println("Auto-flush failed: " + e.getMessage());
@@ -81,40 +249,245 @@ public final class KvStore implements AutoCloseable {
 
     public Optional<String> get(String key) {
         if (key == null) return Optional.empty();
+        return get(key.getBytes(StandardCharsets.UTF_8)).map(v -> new String(v, StandardCharsets.UTF_8));
+    }
 
-        // memtable first
-        byte[] inMem = memtable.get(key);
+    /** The value as a read-only buffer; the key buffer's position is left unchanged. */
+    public Optional<ByteBuffer> get(ByteBuffer key) {
+        if (key == null) return Optional.empty();
+        return get(toArray(key)).map(v -> ByteBuffer.wrap(v).asReadOnlyBuffer());
+    }
+
+    /** The value (a fresh array the caller may keep), or empty if absent or deleted. */
+    public Optional<byte[]> get(byte[] kb) {
+        if (kb == null) return Optional.empty();
+        long start = System.nanoTime();
+        Optional<byte[]> v = find(kb);
+        getCount.increment(); // misses count too, keeps metrics simple
+        (v.isPresent() ? getHitLatency : getMissLatency).recordSince(start);
+        return v;
+    }
+
+    private Optional<byte[]> find(byte[] kb) {
+        // active memtable, then frozen ones (newest first)
+        byte[] inMem = memtable.get(kb);
+        if (inMem == null) {
+            for (Immutable imm : immutables) {
+                inMem = imm.mem().get(kb);
+                if (inMem != null) break;
+            }
+        }
         if (inMem != null) {
-            getCount.incrementAndGet();
-            return Optional.of(new String(inMem, StandardCharsets.UTF_8));
+            if (Memtable.isTombstone(inMem)) return Optional.empty();
+            return Optional.of(inMem.clone()); // the memtable's copy must stay untouched
         }
 
-        // sstables newest -> oldest
-        List<SstReader> snapshot;
-        synchronized (sstables) {
-            snapshot = new ArrayList<>(sstables);
-        }
-        for (SstReader sst : snapshot) {
-            try {
-                Optional<byte[]> vb = sst.get(key);
-                if (vb.isPresent()) {
-                    getCount.incrementAndGet();
-                    return Optional.of(new String(vb.get(), StandardCharsets.UTF_8));
-                }
-            } catch (Exception e) {
-                // Warn and continue; a single corrupted SST shouldn't kill reads
-                System.err.println("SST read failed from " + sst + ": " + e.getMessage());
+        // every L0 table newest -> oldest, then at most one table per deeper level; the pinned
+        // version keeps compaction from closing them under us
+        Version v = acquireVersion();
+        try {
+            for (SstReader sst : v.level(0)) {
+                byte[] vb = lookup(sst, kb);
+                if (vb != null) return live(vb);
+            }
+            for (int i = 1; i < NUM_LEVELS; i++) {
+                SstReader sst = tableFor(v.level(i), kb);
+                byte[] vb = sst == null ? null : lookup(sst, kb);
+                if (vb != null) return live(vb);
             }
+        } finally {
+            v.unref();
         }
-        getCount.incrementAndGet(); // count the miss too, keeps metrics simple
         return Optional.empty();
     }
 
-    public void delete(String key) {
+    /** sst.lookup(), or null (after a warning) if the table can't be read. */
+    private static byte[] lookup(SstReader sst, byte[] kb) {
+        try {
+            return sst.lookup(kb);
+        } catch (Exception e) {
+            // Warn and continue; a single corrupted SST shouldn't kill reads
+            System.err.println("SST read failed from " + sst + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Optional<byte[]> live(byte[] vb) {
+        // the newest entry wins, and a tombstone means deleted
+        return Memtable.isTombstone(vb) ? Optional.empty() : Optional.of(vb);
+    }
+
+    public void delete(String key) throws IOException {
+        delete(key, options.defaultDurability());
+    }
+
+    public void delete(String key, Durability durability) throws IOException {
         if (key == null) return;
-        // Simple delete: remove from memtable (no tombstone persisted here)
-        memtable.remove(key);
-        delCount.incrementAndGet();
+        delete(key.getBytes(StandardCharsets.UTF_8), durability);
+    }
+
+    public void delete(byte[] key) throws IOException {
+        delete(key, options.defaultDurability());
+    }
+
+    public void delete(byte[] kb, Durability durability) throws IOException {
+        if (kb == null) return;
+        if (durability == null) throw new IllegalArgumentException("durability == null");
+        // A tombstone in the active memtable shadows any older value (frozen memtables,
+        // SSTs); it is flushed like a put and dropped once compaction reaches the bottom.
+        long start = System.nanoTime();
+        walLock.readLock().lock();
+        try {
+            long seq = beginWrite(1);
+            try {
+                wal.appendDelete(seq, kb, durability);
+                memtable.delete(kb, seq);
+            } finally {
+                endWrite(seq);
+            }
+        } finally {
+            walLock.readLock().unlock();
+        }
+        delCount.increment();
+        deleteLatency.recordSince(start);
+
+        // tombstones fill the memtable (and pin WAL segments) like puts do
+        if (putsSinceFlush.incrementAndGet() >= flushThreshold) {
+            try {
+                maybeScheduleFlush();
+            } catch (IOException e) {
+                System.err.println("Auto-flush failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /** {@link #write(WriteBatch, Durability)} with the store's default durability. */
+    public void write(WriteBatch batch) throws IOException {
+        write(batch, options.defaultDurability());
+    }
+
+    /**
+     * Apply every op of the batch atomically: one WAL record (so recovery replays all of
+     * it or none), consecutive sequence numbers, and no snapshot sees part of it.
+     */
+    public void write(WriteBatch batch, Durability durability) throws IOException {
+        if (batch == null) throw new IllegalArgumentException("batch == null");
+        if (durability == null) throw new IllegalArgumentException("durability == null");
+        int n = batch.size();
+        if (n == 0) return;
+        walLock.readLock().lock();
+        try {
+            long first = beginWrite(n);
+            try {
+                wal.appendBatch(first, batch, durability);
+                Memtable m = memtable;
+                for (int i = 0; i < n; i++) m.put(batch.key(i), first + i, batch.value(i));
+            } finally {
+                endWrite(first);
+            }
+        } finally {
+            walLock.readLock().unlock();
+        }
+        putCount.add(batch.putCount());
+        delCount.add(batch.deleteCount());
+        batchCount.increment();
+
+        if (putsSinceFlush.addAndGet(n) >= flushThreshold) {
+            try {
+                maybeScheduleFlush();
+            } catch (IOException e) {
+                System.err.println("Auto-flush failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // -------------------- Snapshots and scans --------------------
+
+    /**
+     * A consistent read view as of now: every write that returned before this call and
+     * none that starts after it. Writers are not blocked; the view pins the memtables and
+     * SSTs it reads (compacted-away files stay on disk until it is closed), so close it.
+     */
+    public Snapshot snapshot() {
+        walLock.readLock().lock();   // no freeze while we collect memtables and tables
+        try {
+            long seq = visibleSequence();
+            List<Memtable> mems = new ArrayList<>();
+            mems.add(memtable);
+            for (Immutable imm : immutables) mems.add(imm.mem());
+            return new Snapshot(this, seq, mems, acquireVersion());
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Live entries with startKey <= key < endKey in key order (null bounds are open), at
+     * most {@code limit} of them ({@code limit <= 0}: no limit), as of a snapshot taken now.
+     * Results stream from a merge of the memtables and every SST overlapping the range;
+     * close the Scan when done.
+     */
+    public Scan scan(String startKey, String endKey, int limit) throws IOException {
+        try (Snapshot snap = snapshot()) {
+            return snap.scan(startKey, endKey, limit);
+        }
+    }
+
+    /** Every live entry whose key starts with {@code prefix}, in key order. */
+    public Scan scanPrefix(String prefix) throws IOException {
+        return scanPrefix(prefix, null, 0);
+    }
+
+    /** Like {@link #scanPrefix(String)}, starting at {@code startKey} if that is past the prefix (for paging). */
+    public Scan scanPrefix(String prefix, String startKey, int limit) throws IOException {
+        try (Snapshot snap = snapshot()) {
+            return snap.scanPrefix(prefix, startKey, limit);
+        }
+    }
+
+    /** Byte-key form of {@link #scan(String, String, int)}; a null start means the first key. */
+    public Scan scan(byte[] startKey, byte[] endKey, int limit) throws IOException {
+        try (Snapshot snap = snapshot()) {
+            return snap.scan(startKey, endKey, limit);
+        }
+    }
+
+    public Scan scanPrefix(byte[] prefix, byte[] startKey, int limit) throws IOException {
+        try (Snapshot snap = snapshot()) {
+            return snap.scanPrefix(prefix, startKey, limit);
+        }
+    }
+
+    /** Sequence number of the newest write a snapshot taken now would see. */
+    public long lastSequence() {
+        return visibleSequence();
+    }
+
+    private static byte[] toArray(ByteBuffer b) {
+        byte[] out = new byte[b.remaining()];
+        b.get(b.position(), out);
+        return out;
+    }
+
+    /** Reserve {@code count} consecutive sequence numbers; caller holds the walLock read lock. */
+    private long beginWrite(int count) {
+        synchronized (sequenceLock) {
+            long first = lastSequence + 1;
+            lastSequence += count;
+            inFlight.add(first);
+            return first;
+        }
+    }
+
+    /** The write starting at {@code first} is in the memtable (or failed): let snapshots see it. */
+    private void endWrite(long first) {
+        inFlight.remove(first);
+    }
+
+    private long visibleSequence() {
+        synchronized (sequenceLock) {
+            return inFlight.isEmpty() ? lastSequence : inFlight.first() - 1;
+        }
     }
 
     // -------------------- Flush controls expected by Server --------------------
@@ -128,41 +501,568 @@ public final class KvStore implements AutoCloseable {
         this.flushThreshold = n;
     }
 
+    /** Number of SSTs at each level, L0 first (trailing empty levels omitted). */
+    public List<Integer> tablesPerLevel() {
+        List<Integer> counts = new ArrayList<>();
+        for (List<SstReader> level : version.get().levels()) counts.add(level.size());
+        while (counts.size() > 1 && counts.get(counts.size() - 1) == 0) counts.remove(counts.size() - 1);
+        return counts;
+    }
+
+    public Durability getDefaultDurability() {
+        return options.defaultDurability();
+    }
+
     /**
-     * Flush memtable to a new SSTable file.
-     * File format matches SstReader: repeated [int keyLen][int valLen][key][value] (BIG_ENDIAN).
-     * Returns the filename for logging.
+     * Freeze the active memtable and flush it (plus any still-queued frozen ones) to SSTs,
+     * waiting for the flush thread to finish. Returns the last filename for logging.
+     * Tables are written by TableBuilder (v4: checksummed prefix-compressed blocks, index, bloom).
      */
     public String flushToSstable() throws IOException {
-        // Snapshot memtable to avoid long lock; if empty, do nothing.
-        if (memtable.isEmpty()) return "(no-op)";
-        List<Entry> snapshot = new ArrayList<>(memtable.size());
-        for (var e : memtable.entrySet()) {
-            snapshot.add(new Entry(e.getKey(), e.getValue()));
+        Future<String> done;
+        walLock.writeLock().lock();
+        try {
+            if (memtable.isEmpty() && immutables.isEmpty()) return "(no-op)";
+            // FIFO executor: once this task is done, every earlier frozen memtable is flushed too.
+            done = memtable.isEmpty() ? flusher.submit(this::flushOldestImmutable) : freezeActive();
+        } finally {
+            walLock.writeLock().unlock();
+        }
+        try {
+            return done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for flush", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("flush failed", e.getCause());
         }
+    }
 
-        // Write new SST (timestamp-based name)
-        String fname = "sst_" + System.currentTimeMillis() + ".sst";
-        Path out = dataDir.resolve(fname);
-        writeSst(out, snapshot);
+    /**
+     * Online upgrade: rewrite every pre-v4 SST as v4 under the next generation of its
+     * name (so age order is unchanged) and swap the new reader in; the old file is
+     * deleted once no reader still holds it. Reads keep working throughout;
+     * runs on the compaction thread so it never races a compaction. Returns how many
+     * were rewritten.
+     */
+    public int upgradeLegacySstables() throws IOException {
+        try {
+            return compactor.submit(this::upgradeLegacyNow).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for upgrade", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("upgrade failed", e.getCause());
+        }
+    }
 
-        // Clear memtable entries we flushed
-        for (Entry e : snapshot) {
-            // Only remove if mapping unchanged (avoid racing with new writes)
-            memtable.remove(e.key, e.value);
+    // -------------------- Internal helpers --------------------
+
+    /** Freeze the active memtable if it is (still) over the threshold, then queue its flush. */
+    private void maybeScheduleFlush() throws IOException {
+        awaitFlushBacklog();
+        walLock.writeLock().lock();
+        try {
+            // another writer may have swapped while we waited for the lock
+            if (putsSinceFlush.get() >= flushThreshold && !memtable.isEmpty()) freezeActive();
+        } finally {
+            walLock.writeLock().unlock();
         }
+    }
+
+    /** Caller holds the walLock write lock. */
+    private Future<String> freezeActive() throws IOException {
+        long liveSegment = wal.rotate();
+        immutables.add(0, new Immutable(memtable, liveSegment));
+        memtable = new Memtable();
         putsSinceFlush.set(0);
+        return flusher.submit(() -> {
+            try {
+                return flushOldestImmutable();
+            } catch (IOException e) {
+                // frozen memtable stays readable and its WAL segments stay on disk; next flush retries
+                System.err.println("Background flush failed: " + e.getMessage());
+                throw e;
+            }
+        });
+    }
 
-        // Load the new SST for reads (newest at front)
-        SstReader reader = new SstReader(out);
-        synchronized (sstables) {
-            sstables.add(0, reader);
+    /** Write stall: block the writer while the flush thread is too far behind. */
+    private void awaitFlushBacklog() {
+        synchronized (flushProgress) {
+            while (immutables.size() >= MAX_IMMUTABLES && !flusher.isShutdown()) {
+                try {
+                    flushProgress.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
         }
+    }
 
+    /** Runs on the flush thread only. */
+    private String flushOldestImmutable() throws IOException {
+        if (immutables.isEmpty()) return "(no-op)";
+        Immutable imm = immutables.get(immutables.size() - 1);
+        long start = System.nanoTime();
+
+        String fname = "sst_" + nextFileStamp() + ".sst";
+        Path out = dataDir.resolve(fname);
+        writeTable(out, imm.mem().iterator(Long.MAX_VALUE), imm.mem().approximateCount());
+        IoUtil.fsyncDir(dataDir);
+        SstReader reader = openTable(out);
+        try {
+            manifest.logEdit(new VersionEdit().addTable(0, reader.meta()).lastSequence(reader.maxSequence()));
+        } catch (IOException e) {
+            reader.close(); // the file is dropped as unrecorded on the next open
+            throw e;
+        }
+
+        // Publish the SST before dropping the memtable, so get() never sees a gap.
+        installVersion(levels -> levels.get(0).add(0, reader));
+        reader.release(false); // the version holds it now
+        immutables.remove(imm);
+        synchronized (flushProgress) {
+            flushProgress.notifyAll();
+        }
+
+        // Every record in the older segments is in this memtable, which is now durable
+        // in the SST, so those segments are no longer needed for recovery.
+        wal.deleteSegmentsBefore(imm.walSegment());
+        flushLatency.recordSince(start);
+        maybeScheduleCompaction();
         return fname;
     }
 
-    // -------------------- Internal helpers --------------------
+    /**
+     * Run compaction (in the store's {@link CompactionStyle}) until nothing qualifies,
+     * waiting for it. Returns the number of compactions done. Normally this happens on
+     * its own after flushes.
+     */
+    public int compact() throws IOException {
+        try {
+            return compactor.submit(() -> {
+                int n = 0;
+                while (compactOnce()) n++;
+                return n;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for compaction", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("compaction failed", e.getCause());
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (!options.autoCompaction() || compactor.isShutdown() || !compactionQueued.compareAndSet(false, true)) return;
+        try {
+            compactor.submit(() -> {
+                compactionQueued.set(false);
+                try {
+                    while (compactOnce()) {
+                        if (compactor.isShutdown()) break;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Background compaction failed: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionQueued.set(false); // closing
+        }
+    }
+
+    /** Runs on the compaction thread only. One compaction step; false if nothing qualifies. */
+    private boolean compactOnce() throws IOException {
+        long start = System.nanoTime();
+        boolean did = options.compactionStyle() == CompactionStyle.LEVELED ? compactLeveledOnce() : compactTieredOnce();
+        if (did) compactionLatency.recordSince(start);
+        return did;
+    }
+
+    /**
+     * Size-tiered: merge one run of L0 tables into a single L0 table in the run's place.
+     * Deeper levels (left over from leveled mode) are never touched.
+     */
+    private boolean compactTieredOnce() throws IOException {
+        List<SstReader> run = pickCompactionRun();
+        if (run == null) return false;
+        // Tombstones can go once nothing older than the run is left for them to shadow.
+        Version cur = version.get();
+        List<SstReader> l0 = cur.level(0);
+        boolean bottom = l0.get(l0.size() - 1) == run.get(run.size() - 1) && deeperLevelsEmpty(cur, 0);
+
+        long expected = 0;
+        List<EntryIterator> inputs = new ArrayList<>(run.size());
+        for (SstReader r : run) {
+            expected += r.entryCount() >= 0 ? r.entryCount() : r.fileSize() / 32;
+            inputs.add(r.iterator(false));
+        }
+
+        Path out = compactionOutputPath(run.get(0).path());
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        EntryIterator merged = new MergingIterator(inputs);
+        writeTable(tmp, bottom ? EntryIterator.withoutTombstones(merged) : merged, expected);
+        Files.move(tmp, out, StandardCopyOption.ATOMIC_MOVE);
+        IoUtil.fsyncDir(dataDir);
+        SstReader output = openTable(out);
+        try {
+            manifest.logEdit(removing(run).addTable(0, output.meta()));
+        } catch (IOException e) {
+            output.close();
+            throw e;
+        }
+
+        for (SstReader r : run) r.markObsolete();
+        installVersion(levels -> {
+            List<SstReader> tables = levels.get(0);
+            int at = tables.indexOf(run.get(0));
+            // Flushes only ever add at the front, so the run is still contiguous.
+            tables.subList(at, at + run.size()).clear();
+            tables.add(at, output);
+        });
+        output.release(false);
+        compactionCount.increment();
+        return true;
+    }
+
+    /**
+     * Longest run (ties: smallest tables) of age-adjacent tables whose sizes are within
+     * [avg/2, avg*3/2] of the run's average, with at least COMPACTION_MIN_INPUTS tables.
+     * Only adjacent tables are merged so newer-shadows-older still holds for the output.
+     */
+    private List<SstReader> pickCompactionRun() {
+        List<SstReader> tables = version.get().level(0); // only this thread removes tables
+        List<SstReader> best = null;
+        double bestAvg = 0;
+        int i = 0;
+        while (i < tables.size()) {
+            long total = tables.get(i).fileSize();
+            int j = i + 1;
+            while (j < tables.size() && j - i < COMPACTION_MAX_INPUTS
+                    && similarSize(tables.get(j).fileSize(), total / (double) (j - i))) {
+                total += tables.get(j).fileSize();
+                j++;
+            }
+            int n = j - i;
+            double avg = total / (double) n;
+            if (n >= COMPACTION_MIN_INPUTS
+                    && (best == null || n > best.size() || (n == best.size() && avg < bestAvg))) {
+                best = tables.subList(i, j);
+                bestAvg = avg;
+            }
+            i = j;
+        }
+        return best;
+    }
+
+    private static boolean similarSize(long size, double avg) {
+        if (size < TIER_MIN_BYTES && avg < TIER_MIN_BYTES) return true;
+        return size >= avg / 2 && size <= avg * 1.5;
+    }
+
+    /**
+     * Leveled: pick the level with the highest score (L0: tables / trigger, Li: bytes /
+     * target; must be >= 1) and merge it into the next level. From L0 every table goes;
+     * from Li one table, rotating through the key space. Inputs from the next level are
+     * the tables overlapping that key range; a table with no overlap is just moved down.
+     */
+    private boolean compactLeveledOnce() throws IOException {
+        List<List<SstReader>> snap = version.get().levels(); // only this thread removes tables
+
+        int level = -1;
+        double bestScore = 1.0;
+        for (int i = 0; i < NUM_LEVELS - 1; i++) {
+            double score = i == 0
+                    ? snap.get(0).size() / (double) L0_COMPACTION_TRIGGER
+                    : totalBytes(snap.get(i)) / (double) levelTargetBytes(i);
+            if (score >= bestScore) {
+                bestScore = score;
+                level = i;
+            }
+        }
+        if (level < 0) return false;
+
+        List<SstReader> upper;
+        if (level == 0) {
+            upper = snap.get(0);
+        } else {
+            upper = List.of(pickRotating(snap.get(level), compactPointer[level]));
+        }
+        byte[][] range = keyRange(upper);
+        List<SstReader> lower = new ArrayList<>();
+        for (SstReader t : snap.get(level + 1)) {
+            if (range == null || overlaps(t, range[0], range[1])) lower.add(t);
+        }
+        int from = level;
+        int target = level + 1;
+
+        if (level > 0 && lower.isEmpty()) {
+            // Trivial move: nothing to merge with, so just relabel the table.
+            SstReader t = upper.get(0);
+            String name = t.path().getFileName().toString();
+            manifest.logEdit(new VersionEdit().removeTable(name).addTable(target, t.meta()));
+            installVersion(levels -> {
+                levels.get(from).remove(t);
+                insertByKey(levels.get(target), t);
+            });
+            compactPointer[level] = range[1];
+            compactionCount.increment();
+            return true;
+        }
+
+        List<SstReader> inputs = new ArrayList<>(upper);   // newest first: L0 order, then Li
+        inputs.addAll(lower);                               // next level, older than all of upper
+        long expected = 0, inputBytes = 0;
+        List<EntryIterator> its = new ArrayList<>(inputs.size());
+        for (SstReader r : inputs) {
+            expected += r.entryCount() >= 0 ? r.entryCount() : r.fileSize() / 32;
+            inputBytes += r.fileSize();
+            its.add(r.iterator(false));
+        }
+        // Output at the deepest populated level: no older version left for a tombstone to hide.
+        boolean bottom = true;
+        for (int i = target + 1; i < NUM_LEVELS; i++) bottom &= snap.get(i).isEmpty();
+        EntryIterator merged = new MergingIterator(its);
+        List<Path> outs = writeSplitTables(bottom ? EntryIterator.withoutTombstones(merged) : merged,
+                expected, inputBytes);
+
+        List<SstReader> opened = new ArrayList<>(outs.size());
+        try {
+            for (Path out : outs) opened.add(openTable(out));
+        } catch (IOException e) {
+            for (SstReader r : opened) r.close();
+            for (Path out : outs) Files.deleteIfExists(out);
+            throw e;
+        }
+        VersionEdit edit = removing(inputs);
+        for (SstReader r : opened) edit.addTable(target, r.meta());
+        try {
+            manifest.logEdit(edit);
+        } catch (IOException e) {
+            for (SstReader r : opened) r.close();
+            throw e;
+        }
+
+        for (SstReader r : inputs) r.markObsolete();
+        installVersion(levels -> {
+            levels.get(from).removeAll(upper);
+            levels.get(target).removeAll(lower);
+            for (SstReader r : opened) insertByKey(levels.get(target), r);
+        });
+        for (SstReader r : opened) r.release(false);
+        if (level > 0) compactPointer[level] = range[1];
+        compactionCount.increment();
+        return true;
+    }
+
+    /**
+     * Stream a merge into new tables of about TARGET_FILE_BYTES each (fresh stamps; level
+     * placement is by key, not name). Empty input writes nothing. Cleans up on failure.
+     */
+    private List<Path> writeSplitTables(EntryIterator sorted, long expectedCount, long inputBytes) throws IOException {
+        long perFile = expectedCount;
+        if (inputBytes > TARGET_FILE_BYTES) {
+            perFile = Math.max(1, (long) (expectedCount * (double) TARGET_FILE_BYTES / inputBytes) * 5 / 4);
+        }
+        List<Path> outs = new ArrayList<>();
+        TableBuilder tb = null;
+        try {
+            while (sorted.next()) {
+                if (tb == null) {
+                    Path out = dataDir.resolve("sst_" + nextFileStamp() + ".sst");
+                    outs.add(out);
+                    tb = new TableBuilder(out, options.blockSize(), perFile, options.compression());
+                }
+                tb.add(sorted.key(), sorted.seq(), sorted.value());
+                if (tb.estimatedFileSize() >= TARGET_FILE_BYTES) {
+                    tb.finish();
+                    tb = null;
+                }
+            }
+            if (tb != null) tb.finish();
+        } catch (IOException | RuntimeException e) {
+            if (tb != null) tb.abandon();
+            for (Path out : outs) Files.deleteIfExists(out);
+            throw e;
+        }
+        IoUtil.fsyncDir(dataDir);
+        return outs;
+    }
+
+    private static boolean deeperLevelsEmpty(Version v, int level) {
+        for (int i = level + 1; i < NUM_LEVELS; i++) {
+            if (!v.level(i).isEmpty()) return false;
+        }
+        return true;
+    }
+
+    private static long levelTargetBytes(int level) {
+        long t = L1_TARGET_BYTES;
+        for (int i = 1; i < level; i++) t *= LEVEL_SIZE_RATIO;
+        return t;
+    }
+
+    private static long totalBytes(List<SstReader> tables) {
+        long n = 0;
+        for (SstReader t : tables) n += t.fileSize();
+        return n;
+    }
+
+    /** First table whose first key is past {@code after} (wrapping to the start). */
+    private static SstReader pickRotating(List<SstReader> level, byte[] after) {
+        if (after != null) {
+            for (SstReader t : level) {
+                byte[] first = t.firstKey();
+                if (first != null && Memtable.KEY_ORDER.compare(first, after) > 0) return t;
+            }
+        }
+        return level.get(0);
+    }
+
+    /** {smallest, largest} key over the tables, or null if any range is unknown (pre-v4 file). */
+    private static byte[][] keyRange(List<SstReader> tables) {
+        byte[] lo = null, hi = null;
+        for (SstReader t : tables) {
+            if (t.entryCount() == 0) continue;
+            byte[] f = t.firstKey(), l = t.lastKey();
+            if (f == null || l == null) return null;
+            if (lo == null || Memtable.KEY_ORDER.compare(f, lo) < 0) lo = f;
+            if (hi == null || Memtable.KEY_ORDER.compare(l, hi) > 0) hi = l;
+        }
+        return lo == null ? new byte[][]{new byte[0], new byte[0]} : new byte[][]{lo, hi};
+    }
+
+    /** The current version, pinned (unref() it when done). Lock-free: retries only if a new one was just installed. */
+    private Version acquireVersion() {
+        while (true) {
+            Version v = version.get();
+            if (v.tryRef()) return v;
+        }
+    }
+
+    /**
+     * Flush and compaction threads: install the current version with {@code change}
+     * applied, retrying (from the then-current version) if the other thread installed
+     * one first. The builder pins the base version so its tables can't go meanwhile.
+     */
+    private void installVersion(Consumer<List<List<SstReader>>> change) {
+        while (true) {
+            Version cur = acquireVersion();
+            Version next = cur.with(change);
+            boolean installed = version.compareAndSet(cur, next);
+            if (installed) cur.unref(); // the store's reference
+            else next.unref();
+            cur.unref();
+            if (installed) return;
+        }
+    }
+
+    private SstReader openTable(Path p) throws IOException {
+        return new SstReader(p, options.sstReadMode(), options.blockCache(), options.checksumVerification());
+    }
+
+    static boolean overlaps(SstReader t, byte[] lo, byte[] hi) {
+        return t.compareToRange(lo) <= 0 && t.compareToRange(hi) >= 0;
+    }
+
+    /** The one table of a sorted, non-overlapping level whose range holds key, or null. */
+    static SstReader tableFor(List<SstReader> level, byte[] key) {
+        int lo = 0, hi = level.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = level.get(mid).compareToRange(key);
+            if (c == 0) return level.get(mid);
+            if (c < 0) hi = mid - 1; else lo = mid + 1;
+        }
+        return null;
+    }
+
+    private static void insertByKey(List<SstReader> level, SstReader t) {
+        byte[] first = t.firstKey();
+        int at = 0;
+        while (at < level.size() && first != null
+                && Memtable.KEY_ORDER.compare(level.get(at).firstKey(), first) < 0) {
+            at++;
+        }
+        level.add(at, t);
+    }
+
+    /** An edit that drops {@code tables} from the manifest (callers add the outputs). */
+    private static VersionEdit removing(List<SstReader> tables) {
+        VersionEdit edit = new VersionEdit();
+        for (SstReader t : tables) edit.removeTable(t.path().getFileName().toString());
+        return edit;
+    }
+
+    /** sst_<stamp>[-<gen>].sst -> sst_<stamp>-<gen+1>.sst (skipping leftovers from a crash). */
+    private Path compactionOutputPath(Path newestInput) {
+        long stamp = parseStamp(newestInput);
+        long gen = parseGeneration(newestInput);
+        Path out;
+        do {
+            gen++;
+            out = dataDir.resolve("sst_" + stamp + "-" + gen + ".sst");
+        } while (Files.exists(out));
+        return out;
+    }
+
+    /** Runs on the compaction thread only. */
+    private int upgradeLegacyNow() throws IOException {
+        List<SstReader> legacy = new ArrayList<>();
+        for (List<SstReader> level : version.get().levels()) {
+            for (SstReader r : level) if (r.isLegacyFormat()) legacy.add(r);
+        }
+        for (SstReader old : legacy) {
+            // next generation of the same stamp, so it sorts exactly where the old table was
+            Path out = compactionOutputPath(old.path());
+            Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+            Files.deleteIfExists(tmp);
+            writeTable(tmp, old.iterator(false), old.fileSize() / 32);
+            Files.move(tmp, out, StandardCopyOption.ATOMIC_MOVE);
+            IoUtil.fsyncDir(dataDir);
+
+            SstReader upgraded = openTable(out);
+            int level = 0;
+            while (level < NUM_LEVELS - 1 && !version.get().level(level).contains(old)) level++;
+            try {
+                // only this thread moves tables between levels
+                manifest.logEdit(removing(List.of(old)).addTable(level, upgraded.meta()));
+            } catch (IOException e) {
+                upgraded.close();
+                throw e;
+            }
+
+            old.markObsolete();
+            installVersion(levels -> {
+                for (List<SstReader> l : levels) {
+                    int at = l.indexOf(old);
+                    if (at >= 0) l.set(at, upgraded);
+                }
+            });
+            upgraded.release(false);
+        }
+        return legacy.size();
+    }
+
+    /** Stream sorted entries into a new block-based table; a partial file is deleted on failure. */
+    private void writeTable(Path out, EntryIterator sorted, long expectedCount) throws IOException {
+        try (TableBuilder tb = new TableBuilder(out, options.blockSize(), expectedCount, options.compression())) {
+            while (sorted.next()) {
+                tb.add(sorted.key(), sorted.seq(), sorted.value());
+            }
+            tb.finish();
+        }
+    }
+
+    private long nextFileStamp() {
+        return lastFileStamp.accumulateAndGet(System.currentTimeMillis(), (prev, now) -> Math.max(prev + 1, now));
+    }
 
     private void loadExistingSstables() throws IOException {
         if (!Files.exists(dataDir)) return;
@@ -180,14 +1080,18 @@ public final class KvStore implements AutoCloseable {
             }
         }
 
-        // sort newest first by filename timestamp (or last-modified as fallback)
+        // Half-written compaction/upgrade outputs from a crash; their inputs are still here.
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dataDir, "sst_*.sst.tmp")) {
+            for (Path p : ds) Files.deleteIfExists(p);
+        }
+
+        // sort newest first by filename timestamp and generation (or last-modified as fallback)
         files.sort(new Comparator<>() {
             @Override public int compare(Path a, Path b) {
-                String as = a.getFileName().toString();
-                String bs = b.getFileName().toString();
-                long at = parseStamp(as);
-                long bt = parseStamp(bs);
+                long at = parseStamp(a);
+                long bt = parseStamp(b);
                 int cmp = Long.compare(bt, at);
+                if (cmp == 0) cmp = Long.compare(parseGeneration(b), parseGeneration(a));
                 if (cmp != 0) return cmp;
                 try {
                     return Files.getLastModifiedTime(b).compareTo(Files.getLastModifiedTime(a));
@@ -195,57 +1099,102 @@ public final class KvStore implements AutoCloseable {
                     return 0;
                 }
             }
-            private long parseStamp(String name) {
-                // sst_1699999999999.sst
-                try {
-                    int us = name.indexOf('_');
-                    int dot = name.lastIndexOf('.');
-                    if (us >= 0 && dot > us) {
-                        return Long.parseLong(name.substring(us + 1, dot));
-                    }
-                } catch (Exception ignored) {}
-                return 0L;
-            }
         });
 
-        synchronized (sstables) {
-            for (Path p : files) {
-                try {
-                    sstables.add(new SstReader(p));
-                } catch (IOException e) {
-                    System.err.println("Skipping unreadable SST " + p + ": " + e.getMessage());
+        // With a manifest, it alone says which tables are live; anything else was left by a
+        // flush or compaction that crashed before recording itself (its inputs/WAL remain).
+        // Recorded tables carry their metadata, so they're opened lazily, on first read.
+        boolean authoritative = manifest.load();
+        Map<String, VersionEdit.Table> recorded = manifest.liveTables();
+        List<VersionEdit.Table> live = new ArrayList<>();
+        boolean changed = !authoritative || manifest.needsRewrite();
+        List<List<SstReader>> levels = new ArrayList<>(NUM_LEVELS);
+        for (int i = 0; i < NUM_LEVELS; i++) levels.add(new ArrayList<>());
+        for (Path p : files) {
+            String name = p.getFileName().toString();
+            lastFileStamp.accumulateAndGet(parseStamp(p), Math::max);
+            VersionEdit.Table t = authoritative ? recorded.remove(name) : new VersionEdit.Table(name, 0, null);
+            if (t == null) {
+                if (manifest.wasRepaired()) {
+                    // the cut-off edit may have been the one listing it: keep it, out of the way
+                    Path aside = p.resolveSibling(name + ".unrecorded");
+                    System.err.println("Keeping SST not in repaired MANIFEST as " + aside);
+                    Files.move(p, aside, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    System.err.println("Removing SST not in MANIFEST: " + p);
+                    Files.deleteIfExists(p);
                 }
+                continue;
+            }
+            try {
+                SstReader r;
+                if (t.meta() != null) {
+                    r = new SstReader(p, t.meta(), options.sstReadMode(), options.blockCache(), options.checksumVerification());
+                } else {
+                    r = openTable(p);
+                    changed = true;
+                }
+                int at = Math.min(Math.max(t.level(), 0), NUM_LEVELS - 1);
+                if (at > 0 && r.entryCount() <= 0) at = 0; // no key range: can only live in L0
+                if (at == 0) levels.get(0).add(r); else insertByKey(levels.get(at), r);
+                changed |= at != t.level();
+                live.add(new VersionEdit.Table(name, at, r.meta()));
+            } catch (IOException e) {
+                System.err.println("Skipping unreadable SST " + p + ": " + e.getMessage());
+                live.add(t); // keep it recorded; it may be readable next time
             }
         }
+        installVersion(current -> {
+            for (int i = 0; i < NUM_LEVELS; i++) current.get(i).addAll(levels.get(i));
+        });
+        for (List<SstReader> level : levels) {
+            for (SstReader r : level) r.release(false);
+        }
+        for (String missing : recorded.keySet()) {
+            System.err.println("SST listed in MANIFEST is missing: " + missing);
+            changed = true;
+        }
+        Files.deleteIfExists(dataDir.resolve("TABLES")); // older table-metadata snapshot, now in the MANIFEST
+        if (changed) manifest.rewrite(live);
     }
 
-    private void writeSst(Path out, List<Entry> rows) throws IOException {
-        try (FileChannel ch = FileChannel.open(out,
-                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-
-            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-            for (Entry e : rows) {
-                byte[] k = e.key.getBytes(StandardCharsets.UTF_8);
-                byte[] v = e.value;
-
-                header.clear();
-                header.putInt(k.length);
-                header.putInt(v.length);
-                header.flip();
-                ch.write(header);
+    private static long parseStamp(Path p) {
+        // sst_1699999999999.sst or sst_1699999999999-2.sst
+        String name = p.getFileName().toString();
+        try {
+            int us = name.indexOf('_');
+            int dash = name.indexOf('-', us + 1);
+            int dot = name.lastIndexOf('.');
+            int end = dash > us && dash < dot ? dash : dot;
+            if (us >= 0 && end > us) {
+                return Long.parseLong(name.substring(us + 1, end));
+            }
+        } catch (Exception ignored) {}
+        return 0L;
+    }
 
-                ch.write(ByteBuffer.wrap(k));
-                ch.write(ByteBuffer.wrap(v));
+    /** Compaction generation: 0 for flushed tables, N for sst_<stamp>-N.sst. */
+    private static long parseGeneration(Path p) {
+        String name = p.getFileName().toString();
+        try {
+            int us = name.indexOf('_');
+            int dash = name.indexOf('-', us + 1);
+            int dot = name.lastIndexOf('.');
+            if (us >= 0 && dash > us && dot > dash) {
+                return Long.parseLong(name.substring(dash + 1, dot));
             }
-            ch.force(true);
-        }
+        } catch (Exception ignored) {}
+        return 0L;
     }
 
-    private record Entry(String key, byte[] value) {}
+    /** A frozen memtable plus the first WAL segment that is NOT part of it. */
+    private record Immutable(Memtable mem, long walSegment) {}
 
     @Override
     public String toString() {
-        return "KvStore{dataDir=" + dataDir + ", sstables=" + sstables.size() + ", at=" + Instant.now() + "}";
+        int tables = 0;
+        for (List<SstReader> level : version.get().levels()) tables += level.size();
+        return "KvStore{dataDir=" + dataDir + ", sstables=" + tables + ", at=" + Instant.now() + "}";
     }
 }
 
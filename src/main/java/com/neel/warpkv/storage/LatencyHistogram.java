@@ -0,0 +1,74 @@
+package com.neel.warpkv.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with fixed log-linear buckets: below 1 us, [1, 2) us,
+ * then every power of two up to ~67 s split in two ([2^k, 1.5*2^k) and
+ * [1.5*2^k, 2^(k+1)) microseconds), then overflow. Recording is one LongAdder
+ * increment for the bucket and one add for the sum, so concurrent writers don't
+ * contend the way a shared CAS does.
+ *
+ * Readers get cumulative-ready per-bucket counts; a snapshot taken while writers are
+ * active can be off by the few samples in flight, which is fine for monitoring.
+ */
+public final class LatencyHistogram {
+    private static final int OCTAVES = 26;                      // 1 us .. 2^26 us (~67 s)
+    private static final int BUCKETS = 2 * OCTAVES + 1;         // <1us, [1,2)us, halves from 2us, overflow
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) counts[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts[bucket(nanos / 1000)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /** Records the time since {@code startNanos} (a System.nanoTime() value). */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public static int bucketCount() {
+        return BUCKETS;
+    }
+
+    /** Exclusive upper bound of bucket i in seconds; +Infinity for the overflow bucket. */
+    public static double upperBoundSeconds(int i) {
+        if (i == BUCKETS - 1) return Double.POSITIVE_INFINITY;
+        if (i < 2) return (i + 1) / 1e6;
+        int k = i / 2;
+        long micros = i % 2 == 0 ? (1L << k) + (1L << (k - 1)) : 1L << (k + 1);
+        return micros / 1e6;
+    }
+
+    /** Per-bucket counts (not cumulative), in {@link #upperBoundSeconds} order. */
+    public long[] bucketCounts() {
+        long[] out = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) out[i] = counts[i].sum();
+        return out;
+    }
+
+    public long count() {
+        long n = 0;
+        for (LongAdder c : counts) n += c.sum();
+        return n;
+    }
+
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    private static int bucket(long micros) {
+        if (micros <= 0) return 0;
+        int k = 63 - Long.numberOfLeadingZeros(micros);  // 2^k <= micros < 2^(k+1)
+        if (k == 0) return 1;
+        if (k >= OCTAVES) return BUCKETS - 1;
+        return 2 * k + ((int) (micros >>> (k - 1)) & 1);
+    }
+}
@@ -0,0 +1,150 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format (no frame, no checksum; the SST block trailer has the CRC), greedy
+ * single-probe hash matching like the reference "fast" mode.
+ *
+ * Sequence: [token: literalLen:4 | matchLen-4:4][literalLen overflow: 255* rest]
+ *           [literals][offset:2 little-endian][matchLen overflow]
+ * The last sequence is literals only; the last 5 bytes are always literals and no
+ * match starts in the last 12, as the format requires.
+ */
+final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 14;
+
+    private Lz4() {}
+
+    static byte[] compress(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[n + n / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+        if (n > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            Arrays.fill(table, -1);
+            int ip = 0;
+            int matchEnd = n - LAST_LITERALS;
+            while (ip < n - MF_LIMIT) {
+                int seq = readInt(src, ip);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                    ip++;
+                    continue;
+                }
+                // extend the match backwards over pending literals, then forwards
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int len = MIN_MATCH;
+                while (ip + len < matchEnd && src[ip + len] == src[ref + len]) len++;
+
+                op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, len);
+                ip += len;
+                anchor = ip;
+                if (ip - 2 < n - MF_LIMIT) table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+        // trailing literals
+        int litLen = n - anchor;
+        op = writeLength(dst, op, litLen, 4);
+        System.arraycopy(src, anchor, dst, op, litLen);
+        op += litLen;
+        return Arrays.copyOf(dst, op);
+    }
+
+    /** Decode {@code in} (all of its remaining bytes) into exactly {@code out.length} bytes. */
+    static void decompress(ByteBuffer in, byte[] out) throws IOException {
+        int op = 0;
+        try {
+            while (true) {
+                int token = in.get() & 0xFF;
+                int litLen = readLength(in, token >>> 4);
+                if (litLen > out.length - op || litLen > in.remaining()) throw new IOException("lz4: literal run overflows");
+                in.get(out, op, litLen);
+                op += litLen;
+                if (!in.hasRemaining()) break; // last sequence has no match
+
+                int offset = (in.get() & 0xFF) | (in.get() & 0xFF) << 8;
+                int len = readLength(in, token & 0x0F) + MIN_MATCH;
+                if (offset == 0 || offset > op) throw new IOException("lz4: bad match offset " + offset);
+                if (len < MIN_MATCH || len > out.length - op) throw new IOException("lz4: match overflows"); // < MIN_MATCH: wrapped
+                int from = op - offset;
+                if (offset >= len) {
+                    System.arraycopy(out, from, out, op, len);
+                } else {
+                    for (int i = 0; i < len; i++) out[op + i] = out[from + i]; // overlapping run
+                }
+                op += len;
+            }
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("lz4: truncated input");
+        }
+        if (op != out.length) throw new IOException("lz4: decoded " + op + " of " + out.length + " bytes");
+    }
+
+    private static int writeSequence(byte[] dst, int op, byte[] src, int litStart, int litLen, int offset, int matchLen) {
+        int tokenAt = op;
+        op = writeLength(dst, op, litLen, 4);
+        System.arraycopy(src, litStart, dst, op, litLen);
+        op += litLen;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        int m = matchLen - MIN_MATCH;
+        dst[tokenAt] |= (byte) Math.min(m, 15);
+        if (m >= 15) {
+            m -= 15;
+            while (m >= 255) {
+                dst[op++] = (byte) 255;
+                m -= 255;
+            }
+            dst[op++] = (byte) m;
+        }
+        return op;
+    }
+
+    /** Writes the token (with this length in the nibble at {@code shift}) plus overflow bytes. */
+    private static int writeLength(byte[] dst, int op, int len, int shift) {
+        dst[op++] = (byte) (Math.min(len, 15) << shift);
+        if (len >= 15) {
+            len -= 15;
+            while (len >= 255) {
+                dst[op++] = (byte) 255;
+                len -= 255;
+            }
+            dst[op++] = (byte) len;
+        }
+        return op;
+    }
+
+    private static int readLength(ByteBuffer in, int nibble) throws IOException {
+        int len = nibble;
+        if (nibble == 15) {
+            int b;
+            do {
+                b = in.get() & 0xFF;
+                len += b;
+                if (len < 0) throw new IOException("lz4: length overflow");
+            } while (b == 255);
+        }
+        return len;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
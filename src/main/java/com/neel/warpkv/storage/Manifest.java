@@ -1,27 +1,220 @@
 package com.neel.warpkv.storage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-/** Tracks SSTable files in creation order (newest last). */
+/**
+ * Tracks the live SSTable files: level, key range, size and sequence numbers of each
+ * (see {@link VersionEdit}, {@link TableMeta}), so opening a store means replaying
+ * this log instead of opening every table.
+ *
+ * Binary, append-only log: [magic "WKMF"][version:1], then one record per edit,
+ * [len:4][crc32c:4][VersionEdit bytes] (CRC over the edit plus the EDIT byte). An edit
+ * is a single write + fsync, so a compaction's outputs and removed inputs land
+ * together. A torn last record (a crash mid-append) is truncated away; a bad record
+ * with good ones after it fails load(), since the edits it hides can't be recovered.
+ * The log is rewritten as a snapshot (one edit adding every live table) when the store
+ * opens with changes to record and whenever it has collected REWRITE_AFTER edits.
+ *
+ * Older stores may have the v2 text log ("+level:file" / "-file" edit lines), which is
+ * read and converted on the next snapshot; its tables are known only by name until
+ * then. A plain list of file names (v1) isn't authoritative (flushes never recorded
+ * to it), so load() reports it as absent.
+ */
 public final class Manifest {
+    private static final byte[] MAGIC = {'W', 'K', 'M', 'F'};
+    private static final byte VERSION = 3;
+    private static final int HEADER_SIZE = MAGIC.length + 1;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final byte EDIT = 1;                  // CRC tag of edit records
+    private static final int MAX_EDIT_LEN = 1 << 26;
+    private static final String TEXT_HEADER = "# warpkv manifest v2";
+    private static final int REWRITE_AFTER = 1000;
+
     private final Path path;
+    private final LinkedHashMap<String, VersionEdit.Table> live = new LinkedHashMap<>();
+    private long lastSequence;
+    private int editsSinceRewrite;
+    private boolean needsRewrite;    // loaded from an older format
+    private boolean repaired;        // load() cut a torn last edit off
 
     public Manifest(Path dir) { this.path = dir.resolve("MANIFEST"); }
 
-    public void append(String filename) throws IOException {
-        Files.writeString(path, filename + System.lineSeparator(),
-                java.nio.charset.StandardCharsets.UTF_8,
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    /**
+     * Replay the log. Returns false if there is no authoritative manifest (missing, or
+     * the old file-name list); the caller then decides the table set and rewrite()s.
+     */
+    synchronized boolean load() throws IOException {
+        live.clear();
+        lastSequence = 0;
+        needsRewrite = false;
+        repaired = false;
+        if (!Files.exists(path)) return false;
+        byte[] raw = Files.readAllBytes(path);
+        if (raw.length >= HEADER_SIZE && Arrays.equals(raw, 0, MAGIC.length, MAGIC, 0, MAGIC.length)) {
+            if (raw[MAGIC.length] != VERSION) throw new IOException("unsupported manifest version " + raw[MAGIC.length] + " in " + path);
+            replay(raw);
+            return true;
+        }
+        String text = new String(raw, StandardCharsets.UTF_8);
+        if (!text.startsWith(TEXT_HEADER + "\n")) return false;
+        loadText(raw);
+        needsRewrite = true;
+        return true;
     }
 
-    public List<String> loadAll() throws IOException {
-        if (!Files.exists(path)) return List.of();
-        var lines = Files.readAllLines(path, java.nio.charset.StandardCharsets.UTF_8);
-        return new ArrayList<>(lines);
+    private void replay(byte[] raw) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(raw).order(ByteOrder.BIG_ENDIAN);
+        int pos = HEADER_SIZE;
+        int edits = 0;
+        while (pos < raw.length) {
+            String bad = recordError(raw, pos);
+            if (bad == null) {
+                int len = b.getInt(pos);
+                try {
+                    apply(VersionEdit.decode(ByteBuffer.wrap(raw, pos + RECORD_HEADER_SIZE, len)));
+                    pos += RECORD_HEADER_SIZE + len;
+                    edits++;
+                    continue;
+                } catch (IOException e) {
+                    bad = e.getMessage();
+                }
+            }
+            // A crash mid-append can only tear the last edit. If a good record follows the
+            // bad one, edits were lost from the middle of the log: dropping them would make
+            // the store delete live tables, so refuse to load instead.
+            for (int next = pos + 1; next < raw.length; next++) {
+                if (recordError(raw, next) == null) {
+                    throw new IOException("corrupt MANIFEST record at " + pos + " (" + bad
+                            + ") with a valid record at " + next + " after it: " + path);
+                }
+            }
+            System.err.println("Truncating MANIFEST at " + pos + " (" + bad + "): " + path);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(pos);
+                ch.force(false);
+            }
+            repaired = true;
+            break;
+        }
+        editsSinceRewrite = edits;
+    }
+
+    /** Why the record at {@code pos} is unusable, or null if its framing and CRC check out. */
+    private static String recordError(byte[] raw, int pos) {
+        if (raw.length - pos < RECORD_HEADER_SIZE) return "torn record header";
+        ByteBuffer b = ByteBuffer.wrap(raw).order(ByteOrder.BIG_ENDIAN);
+        int len = b.getInt(pos);
+        int start = pos + RECORD_HEADER_SIZE;
+        if (len <= 0 || len > MAX_EDIT_LEN || len > raw.length - start) {
+            return "torn or oversized record (" + len + " bytes)";
+        }
+        if (Checksums.crc(raw, start, len, EDIT) != b.getInt(pos + 4)) return "checksum mismatch";
+        return null;
+    }
+
+    /** The v2 text log; a torn last line (no trailing newline) is dropped. */
+    private void loadText(byte[] raw) throws IOException {
+        int end = raw.length - 1;
+        while (raw[end] != '\n') end--;
+        String[] lines = new String(raw, 0, end + 1, StandardCharsets.UTF_8).split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            VersionEdit e = new VersionEdit();
+            for (String op : lines[i].trim().split(" ")) {
+                if (op.isEmpty()) continue;
+                if (op.charAt(0) == '-') {
+                    e.removeTable(op.substring(1));
+                } else if (op.charAt(0) == '+') {
+                    int colon = op.indexOf(':');
+                    if (colon < 0) throw new IOException("bad manifest entry '" + op + "' in " + path);
+                    String name = op.substring(colon + 1);
+                    e.addTable(new VersionEdit.Table(name, Integer.parseInt(op.substring(1, colon)), null));
+                } else {
+                    throw new IOException("bad manifest entry '" + op + "' in " + path);
+                }
+            }
+            apply(e);
+        }
+    }
+
+    private void apply(VersionEdit e) {
+        for (String f : e.removed()) live.remove(f);
+        for (VersionEdit.Table t : e.added()) {
+            live.remove(t.name()); // re-added names move to the end, as a fresh add would
+            live.put(t.name(), t);
+        }
+        lastSequence = Math.max(lastSequence, e.lastSequence());
+    }
+
+    /** Every live table, in the order they were added. */
+    synchronized Map<String, VersionEdit.Table> liveTables() {
+        return new LinkedHashMap<>(live);
     }
-}
 
+    /** Highest sequence number recorded as durable in tables (0 if none). */
+    synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /** True if what load() read should be rewritten (it was in an older format). */
+    synchronized boolean needsRewrite() {
+        return needsRewrite;
+    }
+
+    /**
+     * True if load() had to cut off a torn last edit. Its tables may be on disk without
+     * being listed, so callers shouldn't treat unlisted files as garbage this time.
+     */
+    synchronized boolean wasRepaired() {
+        return repaired;
+    }
 
+    /** Durably record one edit (a flush, a compaction, a level move, an upgrade). */
+    synchronized void logEdit(VersionEdit edit) throws IOException {
+        if (edit.isEmpty()) return;
+        if (needsRewrite || !Files.exists(path)) rewrite(live.values());
+        byte[] body = edit.encode();
+        ByteBuffer rec = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length).order(ByteOrder.BIG_ENDIAN);
+        rec.putInt(body.length).putInt(Checksums.crc(body, 0, body.length, EDIT)).put(body).flip();
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (rec.hasRemaining()) ch.write(rec);
+            ch.force(false);
+        }
+        apply(edit);
+        if (++editsSinceRewrite >= REWRITE_AFTER) rewrite(live.values());
+    }
+
+    /** Replace the log with a snapshot holding exactly {@code tables}. */
+    synchronized void rewrite(Collection<VersionEdit.Table> live) throws IOException {
+        List<VersionEdit.Table> tables = new ArrayList<>(live); // may be a view of this.live
+        VersionEdit snapshot = new VersionEdit().lastSequence(lastSequence);
+        for (VersionEdit.Table t : tables) snapshot.addTable(t);
+        byte[] body = snapshot.encode();
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE + RECORD_HEADER_SIZE + body.length).order(ByteOrder.BIG_ENDIAN);
+        b.put(MAGIC).put(VERSION);
+        b.putInt(body.length).putInt(Checksums.crc(body, 0, body.length, EDIT)).put(body).flip();
+
+        Path tmp = path.resolveSibling("MANIFEST.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (b.hasRemaining()) ch.write(b);
+            ch.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        IoUtil.fsyncDir(path.getParent());
+        this.live.clear();
+        for (VersionEdit.Table t : tables) this.live.put(t.name(), t);
+        editsSinceRewrite = 0;
+        needsRewrite = false;
+    }
+}
@@ -0,0 +1,107 @@
+package com.neel.warpkv.storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sorted, concurrent, multi-version in-memory table.
+ *
+ * Keys are raw UTF-8 bytes ordered unsigned-lexicographically, which is the same
+ * order SSTs are written in, so a flush is just an in-order walk of the skiplist.
+ * Every write is stored under (key, seq) with newer versions first, so a reader at
+ * a snapshot sequence finds the newest version it is allowed to see with one
+ * ceiling lookup; older versions are dropped when the memtable is flushed.
+ * A delete stores {@link #TOMBSTONE} as the value, which is flushed like any other
+ * entry and shadows older values in SSTs.
+ */
+public final class Memtable {
+    /** Unsigned lexicographic byte order (matches memcmp / SST order). */
+    public static final Comparator<byte[]> KEY_ORDER = Arrays::compareUnsigned;
+
+    /** Value marking a deleted key. Compared by identity: a real empty value is a different array. */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    /** Key ascending, then seq descending (newest version first). */
+    private record Versioned(byte[] key, long seq) {}
+
+    private static final Comparator<Versioned> VERSION_ORDER = (a, b) -> {
+        int c = KEY_ORDER.compare(a.key, b.key);
+        return c != 0 ? c : Long.compare(b.seq, a.seq);
+    };
+
+    private final ConcurrentSkipListMap<Versioned, byte[]> map = new ConcurrentSkipListMap<>(VERSION_ORDER);
+    private final AtomicInteger count = new AtomicInteger(); // skiplist size() is O(n)
+
+    /** {@code value} may be {@link #TOMBSTONE}. */
+    public void put(byte[] key, long seq, byte[] value) {
+        if (map.put(new Versioned(key, seq), value) == null) count.incrementAndGet();
+    }
+
+    public static boolean isTombstone(byte[] value) {
+        return value == TOMBSTONE;
+    }
+
+    /** The newest value, a tombstone (see {@link #isTombstone}) if deleted here, or null if unknown. */
+    public byte[] get(byte[] key) {
+        return get(key, Long.MAX_VALUE);
+    }
+
+    /** Like {@link #get(byte[])}, ignoring versions newer than {@code maxSeq}. */
+    public byte[] get(byte[] key, long maxSeq) {
+        Map.Entry<Versioned, byte[]> e = map.ceilingEntry(new Versioned(key, maxSeq));
+        return e != null && Arrays.equals(e.getKey().key, key) ? e.getValue() : null;
+    }
+
+    public void delete(byte[] key, long seq) {
+        put(key, seq, TOMBSTONE);
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /** Number of versions held (tombstones included); may lag concurrent writers by a few. */
+    public int approximateCount() {
+        return count.get();
+    }
+
+    /**
+     * Newest version <= maxSeq of every key, in key order, tombstones included.
+     * Weakly consistent with concurrent writes, which is fine below a published sequence.
+     */
+    EntryIterator iterator(long maxSeq) {
+        return new EntryIterator() {
+            private Iterator<Map.Entry<Versioned, byte[]>> it = map.entrySet().iterator();
+            private Map.Entry<Versioned, byte[]> cur;
+
+            @Override public boolean next() {
+                byte[] prev = cur == null ? null : cur.getKey().key;
+                cur = null;
+                while (it.hasNext()) {
+                    Map.Entry<Versioned, byte[]> e = it.next();
+                    Versioned v = e.getKey();
+                    // skip versions the reader can't see, and older versions of the key just returned
+                    if (v.seq > maxSeq || (prev != null && Arrays.equals(prev, v.key))) continue;
+                    cur = e;
+                    return true;
+                }
+                return false;
+            }
+
+            @Override public byte[] key() { return cur.getKey().key; }
+
+            @Override public byte[] value() { return cur.getValue(); }
+
+            @Override public long seq() { return cur.getKey().seq; }
+
+            @Override public void seek(byte[] target) {
+                it = map.tailMap(new Versioned(target, Long.MAX_VALUE), true).entrySet().iterator();
+                cur = null;
+            }
+        };
+    }
+}
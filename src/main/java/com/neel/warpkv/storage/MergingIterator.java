@@ -0,0 +1,96 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of sorted sources (heap keyed by current key), ordered newest first:
+ * when several sources hold the same key, only the newest source's entry is returned
+ * and the shadowed ones are skipped. Tombstones are returned like any other entry.
+ */
+final class MergingIterator implements EntryIterator {
+    private final List<Head> heads;
+    private final PriorityQueue<Head> heap;
+    private boolean started;
+    private byte[] key;
+    private byte[] value;
+    private long seq;
+
+    /** A source and its current entry; rank = position in the newest-first list. */
+    private static final class Head {
+        final EntryIterator it;
+        final int rank;
+        byte[] key;
+
+        Head(EntryIterator it, int rank) {
+            this.it = it;
+            this.rank = rank;
+        }
+    }
+
+    MergingIterator(List<EntryIterator> newestFirst) {
+        this.heads = new ArrayList<>(newestFirst.size());
+        for (int i = 0; i < newestFirst.size(); i++) heads.add(new Head(newestFirst.get(i), i));
+        this.heap = new PriorityQueue<>(Math.max(1, heads.size()), (a, b) -> {
+            int c = Memtable.KEY_ORDER.compare(a.key, b.key);
+            return c != 0 ? c : Integer.compare(a.rank, b.rank);
+        });
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            for (Head h : heads) advance(h);
+        }
+        Head top = heap.poll();
+        if (top == null) {
+            key = value = null;
+            return false;
+        }
+        key = top.key;
+        value = top.it.value();
+        seq = top.it.seq();
+        // Older sources holding the same key are shadowed by this entry.
+        while (!heap.isEmpty() && Memtable.KEY_ORDER.compare(heap.peek().key, key) == 0) {
+            advance(heap.poll());
+        }
+        advance(top);
+        return true;
+    }
+
+    @Override
+    public void seek(byte[] target) throws IOException {
+        heap.clear();
+        for (Head h : heads) {
+            h.it.seek(target);
+            advance(h);
+        }
+        started = true;
+        key = value = null;
+    }
+
+    private void advance(Head h) throws IOException {
+        if (h.it.next()) {
+            h.key = h.it.key();
+            heap.add(h);
+        }
+    }
+
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @Override
+    public byte[] value() {
+        return value;
+    }
+
+    @Override
+    public long seq() {
+        return seq;
+    }
+}
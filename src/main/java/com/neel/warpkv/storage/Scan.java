@@ -0,0 +1,60 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Streaming result of {@link KvStore#scan}: live entries in ascending key order, one at
+ * a time (nothing is materialized). Call next() before the first key(). The SSTs it
+ * reads stay pinned until the scan is exhausted or closed, so always close it.
+ */
+public final class Scan implements AutoCloseable {
+    private final EntryIterator it;
+    private final byte[] end;            // exclusive; null = unbounded
+    private long remaining;
+    private final List<SstReader> pinned;
+    private boolean closed;
+
+    Scan(EntryIterator it, byte[] end, long limit, List<SstReader> pinned) {
+        this.it = it;
+        this.end = end;
+        this.remaining = limit;
+        this.pinned = pinned;
+    }
+
+    public boolean next() throws IOException {
+        if (closed) return false;
+        if (remaining <= 0 || !it.next() || (end != null && Memtable.KEY_ORDER.compare(it.key(), end) >= 0)) {
+            close();
+            return false;
+        }
+        remaining--;
+        return true;
+    }
+
+    /** Current key as UTF-8 text; see {@link #keyBytes()} for binary keys. */
+    public String key() {
+        return new String(it.key(), StandardCharsets.UTF_8);
+    }
+
+    public String value() {
+        return new String(it.value(), StandardCharsets.UTF_8);
+    }
+
+    /** Current key; a fresh array the caller may keep. */
+    public byte[] keyBytes() {
+        return it.key().clone();
+    }
+
+    public byte[] valueBytes() {
+        return it.value().clone();
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (SstReader r : pinned) r.unref();
+    }
+}
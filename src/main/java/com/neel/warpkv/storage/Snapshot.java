@@ -0,0 +1,148 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read view of a {@link KvStore} at one sequence number (see {@link KvStore#snapshot()}).
+ *
+ * Holds the memtables and SSTs that existed when it was taken: memtable versions newer
+ * than the pinned sequence are skipped, and the SSTs can't gain entries, so repeated
+ * gets and scans agree with each other no matter what flushes or compactions run
+ * meanwhile. The pinned tables are released on close().
+ */
+public final class Snapshot implements AutoCloseable {
+    private final KvStore store;                  // for its read counters
+    private final long sequence;
+    private final List<Memtable> memtables;       // active at the time first, then frozen ones newest first
+    private final Version version;                // pinned until close()
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    Snapshot(KvStore store, long sequence, List<Memtable> memtables, Version version) {
+        this.store = store;
+        this.sequence = sequence;
+        this.memtables = memtables;
+        this.version = version;
+    }
+
+    /** Every write with a sequence number <= this is visible, nothing newer is. */
+    public long sequence() {
+        return sequence;
+    }
+
+    public Optional<String> get(String key) {
+        if (key == null) return Optional.empty();
+        return get(key.getBytes(StandardCharsets.UTF_8)).map(v -> new String(v, StandardCharsets.UTF_8));
+    }
+
+    /** The value as of this snapshot (a fresh array), or empty if absent or deleted. */
+    public Optional<byte[]> get(byte[] kb) {
+        if (kb == null) return Optional.empty();
+        checkOpen();
+        store.getCount.increment();
+        for (Memtable m : memtables) {
+            byte[] v = m.get(kb, sequence);
+            if (v != null) return Memtable.isTombstone(v) ? Optional.empty() : Optional.of(v.clone());
+        }
+        // the pinned tables only hold writes at or below our sequence (see KvStore#snapshot)
+        List<List<SstReader>> levels = version.levels();
+        for (int i = 0; i < levels.size(); i++) {
+            List<SstReader> candidates = i == 0 ? levels.get(0) : single(KvStore.tableFor(levels.get(i), kb));
+            for (SstReader sst : candidates) {
+                try {
+                    byte[] v = sst.lookup(kb);
+                    if (v != null) return Memtable.isTombstone(v) ? Optional.empty() : Optional.of(v);
+                } catch (Exception e) {
+                    System.err.println("SST read failed from " + sst + ": " + e.getMessage());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /** See {@link KvStore#scan(String, String, int)}; the Scan stays valid after this snapshot is closed. */
+    public Scan scan(String startKey, String endKey, int limit) throws IOException {
+        return scan(startKey == null ? null : startKey.getBytes(StandardCharsets.UTF_8),
+                endKey == null ? null : endKey.getBytes(StandardCharsets.UTF_8), limit);
+    }
+
+    public Scan scanPrefix(String prefix) throws IOException {
+        return scanPrefix(prefix, null, 0);
+    }
+
+    /** See {@link KvStore#scanPrefix(String, String, int)}. */
+    public Scan scanPrefix(String prefix, String startKey, int limit) throws IOException {
+        return scanPrefix(prefix == null ? null : prefix.getBytes(StandardCharsets.UTF_8),
+                startKey == null ? null : startKey.getBytes(StandardCharsets.UTF_8), limit);
+    }
+
+    public Scan scanPrefix(byte[] prefix, byte[] startKey, int limit) throws IOException {
+        byte[] p = prefix == null ? new byte[0] : prefix;
+        byte[] start = p;
+        if (startKey != null && Memtable.KEY_ORDER.compare(startKey, start) > 0) start = startKey;
+        return scan(start, prefixEnd(p), limit);
+    }
+
+    /** Byte-key form of {@link #scan(String, String, int)}; a null start means the first key. */
+    public Scan scan(byte[] start, byte[] end, int limit) throws IOException {
+        checkOpen();
+        if (start == null) start = new byte[0];
+        // newest source first: memtables, then L0 newest -> oldest and the overlapping
+        // tables of each deeper level (MergingIterator lets earlier sources win)
+        List<EntryIterator> sources = new ArrayList<>();
+        for (Memtable m : memtables) sources.add(m.iterator(sequence));
+
+        // the scan takes its own pins, so it can outlive this snapshot
+        List<SstReader> pinned = new ArrayList<>();
+        for (List<SstReader> level : version.levels()) {
+            for (SstReader t : level) {
+                boolean overlap = end == null ? t.compareToRange(start) <= 0 : KvStore.overlaps(t, start, end);
+                if (overlap) {
+                    t.ref();
+                    pinned.add(t);
+                }
+            }
+        }
+        try {
+            for (SstReader t : pinned) sources.add(t.iterator(true));
+            MergingIterator merged = new MergingIterator(sources);
+            merged.seek(start);
+            store.scanCount.increment();
+            return new Scan(EntryIterator.withoutTombstones(merged), end, limit <= 0 ? Long.MAX_VALUE : limit, pinned);
+        } catch (IOException | RuntimeException e) {
+            for (SstReader t : pinned) t.unref();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        version.unref();
+    }
+
+    private void checkOpen() {
+        if (closed.get()) throw new IllegalStateException("snapshot closed");
+    }
+
+    private static List<SstReader> single(SstReader t) {
+        return t == null ? List.of() : List.of(t);
+    }
+
+    /** Smallest key above every key that starts with prefix, or null if there is none. */
+    private static byte[] prefixEnd(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+}
@@ -6,36 +6,356 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 /**
- * Minimal SSTable reader.
- * File layout (repeated):
- *   [int keyLen][int valLen][key bytes][value bytes]
- * All ints are BIG_ENDIAN.
+ * Minimal SSTable reader. Understands these layouts:
  *
- * This reader scans linearly from dataStart. You can later swap the scan
- * with a sparse index / fence pointers + Bloom check without touching callers.
+ *  - v4 (what TableBuilder / KvStore flushes write): checksummed, prefix-compressed
+ *    data blocks plus meta, index and bloom blocks; footer "SST4" (see TableBuilder).
+ *  - v3 (SstWriter): 20-byte header
+ *    [count:int32][indexOffset:int64][bloomOffset:int64], sorted entries,
+ *    sparse index, bloom block, footer "SST3".
+ *  - v2 (older SstWriter): 12-byte header [count:int32][indexOffset:int64],
+ *    entries, sparse index, footer "SST2"; no bloom.
+ *  - legacy flat files (older KvStore flushes, possibly unsorted), repeated:
+ *    [int keyLen][int valLen][key bytes][value bytes]
+ *
+ * v1-v3 entries share the record layout above; all ints are BIG_ENDIAN.
+ *
+ * For v4 the meta, bloom and index blocks are decoded at open time; get() checks the
+ * bloom, binary-searches the block index for the first block whose last key is >= key,
+ * reads that one block (CRC32C-verified per {@link ChecksumVerification}, decompressed
+ * if its codec says so) and searches its restart points. With a {@link BlockCache},
+ * decoded heap blocks are shared across lookups under this reader's unique file id, so
+ * a hot compressed block is inflated once; uncompressed mapped blocks skip the cache
+ * (the page cache already is one).
+ *
+ * For v3 the bloom block and sparse index are loaded at open time: get() rejects
+ * absent keys with the bloom filter (no I/O at all), then binary-searches the index
+ * and reads just the one INDEX_SPAN run that can hold the key, in a single pread.
+ * Keys with characters from U+E000 up are scanned for instead: v3 files may be sorted
+ * by String or by bytes (see SstWriter), and those keys are where the two differ.
+ * Older formats fall back to a linear scan over [dataStart, dataEnd).
+ *
+ * In {@link ReadMode#MMAP} the file is mapped read-only (in 1 GiB chunks, so files
+ * over 2 GB work too) and lookups compare keys in place against the page cache: no
+ * read syscalls and no copies except the returned value. Mapping failures fall back
+ * to channel reads. close() never force-unmaps: it drops the mappings and lets the GC
+ * release them once no in-flight lookup still holds a slice, so a table that
+ * compaction deletes can't fault a concurrent reader.
+ *
+ * A reader built from a {@link TableMeta} knows its size, key range, entry count and
+ * max sequence without touching the file; the file is opened (footer, index, bloom,
+ * mapping) by the first lookup, scan or forEach, so a store with thousands of tables
+ * starts without opening any of them.
+ *
+ * Lifetime: the reader starts with one reference, its creator's; every {@link Version}
+ * that lists it holds another, and scans pin it with ref() / unref(). The creator
+ * drops its reference with release() once the table is in a version, and the last
+ * unref() closes the reader (and deletes the file if it was marked obsolete, i.e.
+ * compacted away).
  */
 public final class SstReader implements AutoCloseable {
+
+    /** How lookups reach the file. */
+    public enum ReadMode {
+        /** Positional FileChannel reads into heap buffers. */
+        CHANNEL,
+        /** Read-only memory mapping; falls back to CHANNEL if the map fails. */
+        MMAP
+    }
+
+    private static final long MAP_CHUNK = 1L << 30;     // 1 GiB per MappedByteBuffer
     private static final int MAX_KEY_LEN = 1 << 20;      // 1 MiB
     private static final int MAX_VAL_LEN = 16 << 20;     // 16 MiB
     private static final int HEADER_SIZE = 8;            // [int keyLen][int valLen], BIG_ENDIAN
-
-    // If your writer sometimes prepends a small header, probe a few starts.
-    private static final List<Long> CANDIDATE_DATA_STARTS = List.of(0L, 4L, 12L, 20L);
+    private static final int MAX_SPAN_READ = 1 << 20;    // bigger index runs are scanned record by record
+    private static final AtomicLong NEXT_FILE_ID = new AtomicLong();
 
     private final Path path;
-    private final FileChannel ch;
-    private final long dataStart;
+    private static final byte[] MAGIC2 = new byte[]{'S','S','T','2'};
+    private static final int V2_HEADER_SIZE = 4 + 8;
+
+    // Everything below the cache/refs fields is filled in by open(), except that a reader
+    // built from a TableMeta has size, format and the meta fields from the start. opened
+    // (volatile) publishes the rest to threads that didn't run open().
+    private FileChannel ch;
+    private long size;
+    private final long fileId = NEXT_FILE_ID.incrementAndGet(); // block cache key; never reused
+    private final BlockCache cache;                             // null = no caching
+    private final ChecksumVerification verification;
+    private final ReadMode mode;
+    private final boolean fromMeta;
+    private volatile boolean opened;
+    private boolean closed;                                     // guarded by this
+    private final AtomicInteger refs = new AtomicInteger(1);    // 1 = the owner's reference
+    private volatile boolean deleteOnRelease;
+    private volatile ByteBuffer[] chunks;  // MMAP mode only; chunk i starts at i * MAP_CHUNK
+    private int formatVersion;  // 1 = flat, 2 = SST2, 3 = SST3, 4 = SST4
+    private long dataStart;
+    private long dataEnd;     // exclusive
+
+    // v3 only (null otherwise): bloom over all keys, and sparse index of every INDEX_SPAN-th key
+    private BloomFilter bloom;
+    private byte[][] indexKeys;
+    private long[] indexOffsets;
+
+    // v4 only (null otherwise): per data block, its last key and handle
+    private byte[][] blockLastKeys;
+    private long[] blockOffsets;
+    private int[] blockSizes;
+    private long entryCount;
+    private byte[] firstKey;
+    private byte[] lastKey;
+    private boolean taggedValues;   // revision >= 2: data blocks carry tombstones
+    private boolean sequenced;      // revision >= 3: data blocks carry sequence numbers
+    private long maxSequence;
 
     public SstReader(Path path) throws IOException {
+        this(path, ReadMode.CHANNEL);
+    }
+
+    public SstReader(Path path, ReadMode mode) throws IOException {
+        this(path, mode, null);
+    }
+
+    public SstReader(Path path, ReadMode mode, BlockCache cache) throws IOException {
+        this(path, mode, cache, ChecksumVerification.ALWAYS);
+    }
+
+    public SstReader(Path path, ReadMode mode, BlockCache cache, ChecksumVerification verification) throws IOException {
+        this(path, null, mode, cache, verification);
+        ensureOpen();
+    }
+
+    /** With a non-null {@code meta}, the file isn't opened until it is first read. */
+    SstReader(Path path, TableMeta meta, ReadMode mode, BlockCache cache, ChecksumVerification verification) {
         this.path = path;
+        this.cache = cache;
+        this.verification = verification;
+        this.mode = mode;
+        this.fromMeta = meta != null;
+        if (meta != null) {
+            this.size = meta.fileSize();
+            this.formatVersion = meta.formatVersion();
+            this.entryCount = meta.entryCount();
+            this.firstKey = meta.firstKey();
+            this.lastKey = meta.lastKey();
+            this.maxSequence = meta.maxSequence();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (opened) return;
+        synchronized (this) {
+            if (opened) return;
+            if (closed) throw new IOException("SST closed: " + path);
+            open();
+            opened = true;
+        }
+    }
+
+    private void open() throws IOException {
         this.ch = FileChannel.open(path, StandardOpenOption.READ);
-        this.dataStart = findDataStart();
+        long fileSize = ch.size();
+        if (fromMeta && fileSize != size) {
+            ch.close();
+            throw new IOException("SST " + path + " is " + fileSize + " bytes, metadata says " + size);
+        }
+        this.size = fileSize;
+        ByteBuffer v4 = v4Footer(size);
+        long[] v3 = v4 == null ? v3Offsets(size) : null;
+        long v2Index = v4 == null && v3 == null ? v2IndexOffset(size) : -1;
+        BloomFilter bf = null;
+        byte[][] ik = null;
+        long[] io = null;
+        byte[][] bk = null;
+        long[] bo = null;
+        int[] bs = null;
+        long count = -1;
+        byte[] fk = null;
+        byte[] lk = null;
+        boolean tagged = false;
+        boolean sequenced = false;
+        long maxSeq = 0;
+        int format;
+        if (v4 != null) {
+            format = 4;
+            try {
+                long metaOffset = v4.getLong();
+                int metaSize = v4.getInt();
+                long indexOffset = v4.getLong();
+                int indexSize = v4.getInt();
+                long bloomOffset = v4.getLong();
+                int bloomSize = v4.getInt();
+                int revision = v4.getInt();
+                tagged = revision >= TableBuilder.FIRST_TAGGED_REVISION;
+                sequenced = revision >= TableBuilder.FIRST_SEQUENCED_REVISION;
+                this.dataStart = 0L;
+                this.dataEnd = metaOffset;
+
+                ByteBuffer meta = readBlock(metaOffset, metaSize, false);
+                count = Varint.getLong(meta);
+                fk = new byte[Varint.getInt(meta)];
+                meta.get(fk);
+                lk = new byte[Varint.getInt(meta)];
+                meta.get(lk);
+                if (sequenced) maxSeq = Varint.getLong(meta);
+
+                bf = BloomFilter.fromBytes(heapCopy(readBlock(bloomOffset, bloomSize, false)));
+
+                List<byte[]> keys = new ArrayList<>();
+                List<byte[]> handles = new ArrayList<>();
+                new Block(readBlock(indexOffset, indexSize, false), false, false).forEach((k, h) -> {
+                    keys.add(k);
+                    handles.add(h);
+                });
+                int n = keys.size();
+                bk = keys.toArray(new byte[0][]);
+                bo = new long[n];
+                bs = new int[n];
+                for (int i = 0; i < n; i++) {
+                    ByteBuffer h = ByteBuffer.wrap(handles.get(i));
+                    bo[i] = Varint.getLong(h);
+                    bs[i] = Varint.getInt(h);
+                    if (bo[i] < 0 || bo[i] + bs[i] + TableBuilder.TRAILER_SIZE > metaOffset) {
+                        throw new IOException("bad block handle " + bo[i] + "+" + bs[i]);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw new IOException("Corrupt v4 metadata in " + path + ": " + e.getMessage(), e);
+            }
+        } else if (v3 != null) {
+            format = 3;
+            this.dataStart = SstWriter.HEADER_SIZE;
+            this.dataEnd = v3[0];
+            try {
+                bf = BloomFilter.fromBytes(readRegion(v3[1], size - SstWriter.MAGIC3.length));
+                ByteBuffer idx = ByteBuffer.wrap(readRegion(v3[0], v3[1])).order(ByteOrder.BIG_ENDIAN);
+                int n = idx.getInt();
+                if (n < 0 || n > idx.remaining() / 12) throw new IOException("bad index count " + n);
+                ik = new byte[n][];
+                io = new long[n];
+                for (int i = 0; i < n; i++) {
+                    int kLen = idx.getInt();
+                    if (kLen < 0 || kLen > MAX_KEY_LEN) throw new IOException("bad index key length " + kLen);
+                    ik[i] = new byte[kLen];
+                    idx.get(ik[i]);
+                    io[i] = idx.getLong();
+                    if (io[i] < dataStart || io[i] >= dataEnd) throw new IOException("bad index offset " + io[i]);
+                }
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw new IOException("Corrupt v3 index/bloom in " + path + ": " + e.getMessage(), e);
+            }
+        } else if (v2Index >= 0) {
+            format = 2;
+            this.dataStart = V2_HEADER_SIZE;
+            this.dataEnd = v2Index;
+        } else {
+            format = 1;
+            this.dataStart = 0L;
+            this.dataEnd = size;
+        }
+        if (fromMeta && format != formatVersion) {
+            ch.close();
+            throw new IOException("SST " + path + " is format v" + format + ", metadata says v" + formatVersion);
+        }
+        this.bloom = bf;
+        this.indexKeys = ik;
+        this.indexOffsets = io;
+        this.blockLastKeys = bk;
+        this.blockOffsets = bo;
+        this.blockSizes = bs;
+        this.taggedValues = tagged;
+        this.sequenced = sequenced;
+        if (!fromMeta) {
+            this.formatVersion = format;
+            this.entryCount = count;
+            this.firstKey = fk;
+            this.lastKey = lk;
+            this.maxSequence = maxSeq;
+        }
+        if (mode == ReadMode.MMAP) {
+            this.chunks = mapChunks();
+        }
+    }
+
+    private ByteBuffer[] mapChunks() {
+        int n = (int) ((size + MAP_CHUNK - 1) / MAP_CHUNK);
+        ByteBuffer[] out = new ByteBuffer[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                long start = i * MAP_CHUNK;
+                out[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, size - start))
+                        .order(ByteOrder.BIG_ENDIAN);
+            }
+            return out;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("mmap failed for " + path + ", using channel reads: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** True if lookups go through a memory mapping (MMAP requested and the map succeeded). */
+    public boolean isMapped() {
+        return chunks != null;
+    }
+
+    /** True for anything older than v4 (what the online upgrade rewrites). */
+    public boolean isLegacyFormat() {
+        return formatVersion < 4;
+    }
+
+    public int formatVersion() {
+        return formatVersion;
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    /** Size of the table file in bytes. */
+    public long fileSize() {
+        return size;
+    }
+
+    /** Number of entries, or -1 if the format doesn't record it (pre-v4). */
+    public long entryCount() {
+        return entryCount;
+    }
+
+    /** Smallest key in the table, or null if unknown (pre-v4) or the table is empty. */
+    public byte[] firstKey() {
+        return entryCount > 0 ? firstKey.clone() : null;
+    }
+
+    /** Largest key in the table, or null if unknown (pre-v4) or the table is empty. */
+    public byte[] lastKey() {
+        return entryCount > 0 ? lastKey.clone() : null;
+    }
+
+    /** Largest sequence number in the table; 0 if none or the format predates them. */
+    public long maxSequence() {
+        return maxSequence;
+    }
+
+    /** What a lazily opened reader of this table would need (see {@link TableMeta}). */
+    TableMeta meta() {
+        return new TableMeta(path.getFileName().toString(), size, formatVersion, entryCount,
+                firstKey, lastKey, maxSequence);
     }
 
     /** Convenience overload — accepts String key and returns Optional<byte[]> */
@@ -45,23 +365,241 @@ public final class SstReader implements AutoCloseable {
 
     /** Core API — byte[] key in, Optional<byte[]> value out. */
     public Optional<byte[]> get(byte[] key) throws IOException {
-        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
-        long pos = dataStart;
+        byte[] v = lookup(key);
+        return v == null || Memtable.isTombstone(v) ? Optional.empty() : Optional.of(v);
+    }
 
-        while (true) {
-            header.clear();
-            int read = ch.read(header, pos);
-            if (read == -1) {
-                // EOF — not found
-                return Optional.empty();
+    /**
+     * Like get(), but tells a delete apart from absence: returns the value,
+     * {@link Memtable#TOMBSTONE} if this table's entry for key is a delete, or null.
+     */
+    byte[] lookup(byte[] key) throws IOException {
+        ensureOpen();
+        if (blockLastKeys != null) {
+            if (!bloom.mightContain(key)) {
+                return null;
             }
-            if (read < HEADER_SIZE) {
-                throw new EOFException("Truncated header at pos=" + pos + " in " + path);
+            int b = ceilBlock(key);
+            if (b < 0) {
+                return null; // sorts after the last key
             }
-            header.flip();
+            return dataBlock(b).get(key);
+        }
+        return getPreV4(key).orElse(null);
+    }
 
-            int kLen = header.getInt();
-            int vLen = header.getInt();
+    /** v1-v3 lookups; those formats have no deletes. */
+    private Optional<byte[]> getPreV4(byte[] key) throws IOException {
+        if (indexKeys == null) {
+            return scan(key, dataStart, dataEnd, false);
+        }
+        if (!bloom.mightContain(key)) {
+            return Optional.empty();
+        }
+        if (!sameInBothOrders(key)) {
+            // the first SstWriter sorted by String, later ones by bytes, and a v3 file
+            // doesn't say which: for these keys the index may point the wrong way
+            return scan(key, dataStart, dataEnd, false);
+        }
+        int run = floorIndex(key);
+        if (run < 0) {
+            return Optional.empty(); // sorts before the first key
+        }
+        long from = indexOffsets[run];
+        long to = run + 1 < indexOffsets.length ? indexOffsets[run + 1] : dataEnd;
+        if (to - from > MAX_SPAN_READ) {
+            return scan(key, from, to, true);
+        }
+        return searchSpan(key, from, to);
+    }
+
+    /**
+     * True if key compares the same against any other key in byte order and in String
+     * (UTF-16) order. The two only disagree where both keys have a UTF-8 lead byte from
+     * 0xEE up at the first difference: U+E000-U+FFFF vs supplementary characters.
+     */
+    private static boolean sameInBothOrders(byte[] key) {
+        for (byte b : key) {
+            if ((b & 0xff) >= 0xEE) return false;
+        }
+        return true;
+    }
+
+    /** Last index entry whose key is <= key, or -1. */
+    private int floorIndex(byte[] key) {
+        int lo = 0, hi = indexKeys.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(indexKeys[mid], key) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Where key falls relative to [firstKey, lastKey]: negative if before, positive if
+     * after, 0 if inside or if the range is unknown (pre-v4) or empty.
+     */
+    int compareToRange(byte[] key) {
+        if (entryCount <= 0) return 0;
+        if (Arrays.compareUnsigned(key, firstKey) < 0) return -1;
+        if (Arrays.compareUnsigned(key, lastKey) > 0) return 1;
+        return 0;
+    }
+
+    /** Take a reference. Only valid while some other holder (a version, a scan) still has one. */
+    void ref() {
+        if (refs.getAndIncrement() <= 0) throw new IllegalStateException("ref() on released " + this);
+    }
+
+    void unref() {
+        if (refs.decrementAndGet() != 0) return;
+        try {
+            close();
+            if (deleteOnRelease) Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Failed to drop released SST " + path + ": " + e.getMessage());
+        }
+    }
+
+    /** Drop the creator's reference; with {@code deleteFile} the file goes once nobody reads it. */
+    void release(boolean deleteFile) {
+        if (deleteFile) markObsolete();
+        unref();
+    }
+
+    /** Delete the file when the last reference goes (the table was compacted away). */
+    void markObsolete() {
+        deleteOnRelease = true;
+    }
+
+    /**
+     * Every entry in ascending key order, tombstones included, one block in memory at a
+     * time. Compaction passes {@code useCache = false} so a full pass doesn't churn the
+     * block cache; scans go through it. Older formats are read fully and sorted first;
+     * for duplicate keys in flat files the first one wins, as with get().
+     */
+    EntryIterator iterator(boolean useCache) throws IOException {
+        ensureOpen();
+        if (blockLastKeys == null) {
+            TreeMap<byte[], byte[]> rows = new TreeMap<>(Memtable.KEY_ORDER);
+            forEach(rows::putIfAbsent);
+            return EntryIterator.of(rows);
+        }
+        return new EntryIterator() {
+            private int nextBlock;
+            private EntryIterator cur;
+
+            @Override public boolean next() throws IOException {
+                while (cur == null || !cur.next()) {
+                    if (nextBlock >= blockOffsets.length) return false;
+                    cur = block(nextBlock++).iterator();
+                }
+                return true;
+            }
+
+            @Override public byte[] key() { return cur.key(); }
+
+            @Override public byte[] value() { return cur.value(); }
+
+            @Override public long seq() { return cur.seq(); }
+
+            @Override public void seek(byte[] target) throws IOException {
+                int b = ceilBlock(target);
+                if (b < 0) {
+                    nextBlock = blockOffsets.length;  // past the last key: exhausted
+                    cur = null;
+                    return;
+                }
+                cur = block(b).iterator();
+                cur.seek(target);
+                nextBlock = b + 1;
+            }
+
+            private Block block(int i) throws IOException {
+                if (useCache) return dataBlock(i);
+                return new Block(readBlock(blockOffsets[i], blockSizes[i], false), taggedValues, sequenced);
+            }
+        };
+    }
+
+    /** Data block i, from the block cache when possible. */
+    private Block dataBlock(int i) throws IOException {
+        long off = blockOffsets[i];
+        if (cache != null) {
+            Block cached = cache.get(fileId, off);
+            if (cached != null) return cached;
+        }
+        ByteBuffer contents = readBlock(off, blockSizes[i], true);
+        Block block = new Block(contents, taggedValues, sequenced);
+        if (cache != null && !contents.isDirect()) cache.put(fileId, off, block);
+        return block;
+    }
+
+    /** First data block whose last key is >= key, or -1. */
+    private int ceilBlock(byte[] key) {
+        int lo = 0, hi = blockLastKeys.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(blockLastKeys[mid], key) >= 0) {
+                found = mid;
+                hi = mid - 1;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return found;
+    }
+
+    /** One read (pread or mapped slice) for the whole run, then compare keys in place. */
+    private Optional<byte[]> searchSpan(byte[] key, long from, long to) throws IOException {
+        int len = (int) (to - from);
+        ByteBuffer span = read(from, len);
+        ByteBuffer target = ByteBuffer.wrap(key);
+        int p = 0;
+        while (p < len) {
+            if (len - p < HEADER_SIZE) throw new EOFException("Truncated header at pos=" + (from + p) + " in " + path);
+            int kLen = span.getInt(p);
+            int vLen = span.getInt(p + 4);
+            int keyPos = p + HEADER_SIZE;
+            if (kLen < 0 || vLen < 0 || (long) keyPos + kLen + vLen > len) {
+                throw new IOException("Corrupt record lengths at pos=" + (from + p) + " in " + path +
+                        " kLen=" + kLen + " vLen=" + vLen);
+            }
+            int cmp = Block.compare(span, keyPos, kLen, target);
+            if (cmp == 0) {
+                byte[] value = new byte[vLen];
+                span.get(keyPos + kLen, value);
+                return Optional.of(value);
+            }
+            if (cmp > 0) {
+                return Optional.empty(); // sorted: passed where it would be
+            }
+            p = keyPos + kLen + vLen;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Record-by-record scan of [from, to). With {@code sorted}, stops as soon as a
+     * larger key shows up; otherwise (flat files) it has to go all the way.
+     */
+    private Optional<byte[]> scan(byte[] key, long from, long to, boolean sorted) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(key);
+        long pos = from;
+
+        while (true) {
+            if (pos >= to) {
+                // end of data region — not found
+                return Optional.empty();
+            }
+            ByteBuffer header = read(pos, HEADER_SIZE);
+            int kLen = header.getInt(0);
+            int vLen = header.getInt(4);
 
             if (kLen < 0 || kLen > MAX_KEY_LEN || vLen < 0 || vLen > MAX_VAL_LEN) {
                 throw new IOException("Corrupt record lengths at pos=" + pos + " in " + path +
@@ -72,22 +610,22 @@ public final class SstReader implements AutoCloseable {
             long valPos = keyPos + kLen;
             long nextPos = valPos + vLen;
 
-            // Read key
-            ByteBuffer kbuf = ByteBuffer.allocate(kLen);
-            int r1 = ch.read(kbuf, keyPos);
-            if (r1 != kLen) {
-                throw new EOFException("Truncated key at pos=" + keyPos + " in " + path);
+            // Compare key (a length mismatch can't be equal, so skip the read)
+            int cmp;
+            if (kLen != key.length && !sorted) {
+                cmp = 1;
+            } else {
+                cmp = Block.compare(read(keyPos, kLen), 0, kLen, target);
             }
-            byte[] kbytes = kbuf.array();
-
-            if (byteArrayEquals(kbytes, key)) {
+            if (sorted && cmp > 0) {
+                return Optional.empty();
+            }
+            if (cmp == 0) {
                 // Read value
-                ByteBuffer vbuf = ByteBuffer.allocate(vLen);
-                int r2 = ch.read(vbuf, valPos);
-                if (r2 != vLen) {
-                    throw new EOFException("Truncated value at pos=" + valPos + " in " + path);
-                }
-                return Optional.of(vbuf.array());
+                ByteBuffer vbuf = read(valPos, vLen);
+                byte[] value = new byte[vLen];
+                vbuf.get(0, value);
+                return Optional.of(value);
             }
 
             // advance cursor
@@ -95,28 +633,196 @@ public final class SstReader implements AutoCloseable {
         }
     }
 
-    private long findDataStart() throws IOException {
-        // If your SstWriter writes a magic/version header, detect it here.
-        // For now we assume data starts at 0. Kept flexible for future-proofing.
-        for (long cand : CANDIDATE_DATA_STARTS) {
-            if (cand == 0L) return 0L;
-            // You could peek and validate a magic/version if you add one later.
+    /**
+     * Visit every entry in file order (sorted for v3/v4; as written for older files).
+     * Deleted keys are passed with a value for which {@link Memtable#isTombstone} is true.
+     */
+    public void forEach(BiConsumer<byte[], byte[]> visitor) throws IOException {
+        ensureOpen();
+        if (blockLastKeys != null) {
+            for (int i = 0; i < blockOffsets.length; i++) {
+                new Block(readBlock(blockOffsets[i], blockSizes[i], false), taggedValues, sequenced).forEach(visitor);
+            }
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        long pos = dataStart;
+        while (pos < dataEnd) {
+            header.clear();
+            if (ch.read(header, pos) < HEADER_SIZE) {
+                throw new EOFException("Truncated header at pos=" + pos + " in " + path);
+            }
+            header.flip();
+            int kLen = header.getInt();
+            int vLen = header.getInt();
+            if (kLen < 0 || kLen > MAX_KEY_LEN || vLen < 0 || vLen > MAX_VAL_LEN) {
+                throw new IOException("Corrupt record lengths at pos=" + pos + " in " + path +
+                        " kLen=" + kLen + " vLen=" + vLen);
+            }
+            ByteBuffer rec = ByteBuffer.allocate(kLen + vLen);
+            if (ch.read(rec, pos + HEADER_SIZE) != kLen + vLen) {
+                throw new EOFException("Truncated record at pos=" + pos + " in " + path);
+            }
+            byte[] b = rec.array();
+            visitor.accept(Arrays.copyOfRange(b, 0, kLen), Arrays.copyOfRange(b, kLen, kLen + vLen));
+            pos += HEADER_SIZE + kLen + vLen;
         }
-        return 0L;
     }
 
-    private static boolean byteArrayEquals(byte[] a, byte[] b) {
-        if (a == b) return true;
-        if (a == null || b == null) return false;
-        if (a.length != b.length) return false;
-        for (int i = 0; i < a.length; i++) {
-            if (a[i] != b[i]) return false;
+    /**
+     * Returns {indexOffset, bloomOffset}, or null if this isn't a (sane) v3 file. A legacy
+     * file whose last value happens to end in "SST3" fails the header offset checks.
+     */
+    private long[] v3Offsets(long size) throws IOException {
+        if (size < SstWriter.HEADER_SIZE + SstWriter.MAGIC3.length) return null;
+        if (!hasFooter(size, SstWriter.MAGIC3)) return null;
+
+        ByteBuffer hdr = ByteBuffer.allocate(SstWriter.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        if (ch.read(hdr, 0) != SstWriter.HEADER_SIZE) return null;
+        hdr.flip();
+        int count = hdr.getInt();
+        long indexOffset = hdr.getLong();
+        long bloomOffset = hdr.getLong();
+        boolean sane = count >= 0
+                && indexOffset >= SstWriter.HEADER_SIZE
+                && bloomOffset >= indexOffset + 4
+                && bloomOffset + 8 <= size - SstWriter.MAGIC3.length;
+        return sane ? new long[]{indexOffset, bloomOffset} : null;
+    }
+
+    /**
+     * {@code len} bytes at {@code pos} as a buffer with position 0 (BIG_ENDIAN). Mapped:
+     * a zero-copy slice, unless the range straddles two chunks (then a copy). Otherwise
+     * a pread into a fresh heap buffer.
+     */
+    private ByteBuffer read(long pos, int len) throws IOException {
+        if (pos < 0 || len < 0 || pos + len > size) {
+            throw new EOFException("Read past end: pos=" + pos + " len=" + len + " in " + path);
         }
-        return true;
+        if (len == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        ByteBuffer[] mapped = chunks;
+        if (mapped != null) {
+            int ci = (int) (pos / MAP_CHUNK);
+            int off = (int) (pos - ci * MAP_CHUNK);
+            ByteBuffer c = mapped[ci];
+            if (off + len <= c.capacity()) {
+                return c.slice(off, len).order(ByteOrder.BIG_ENDIAN);
+            }
+            ByteBuffer copy = ByteBuffer.allocate(len).order(ByteOrder.BIG_ENDIAN);
+            while (copy.hasRemaining()) {
+                long at = pos + copy.position();
+                ci = (int) (at / MAP_CHUNK);
+                off = (int) (at - ci * MAP_CHUNK);
+                int n = Math.min(copy.remaining(), mapped[ci].capacity() - off);
+                copy.put(mapped[ci].slice(off, n));
+            }
+            return copy.flip();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.BIG_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new EOFException("Truncated read at pos=" + pos + " in " + path);
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * Contents of the v4 block at {@code pos} (trailer excluded), after checking the
+     * trailer's codec byte and (see {@link ChecksumVerification}) CRC32C. {@code lookup}
+     * marks data blocks read for gets and scans; everything else is always checked
+     * unless verification is OFF.
+     */
+    private ByteBuffer readBlock(long pos, int len, boolean lookup) throws IOException {
+        if (len < 0) throw new IOException("bad block size " + len + " at " + pos + " in " + path);
+        ByteBuffer b = read(pos, len + TableBuilder.TRAILER_SIZE);
+        byte codec = b.get(len);
+        if (shouldVerify(lookup, codec, b.isDirect()) && !Checksums.verify(b.slice(0, len), codec, b.getInt(len + 1))) {
+            throw new IOException("Block checksum mismatch at pos=" + pos + " in " + path);
+        }
+        ByteBuffer contents = b.slice(0, len).order(ByteOrder.BIG_ENDIAN);
+        if (codec == Compression.NONE.id()) return contents;
+        try {
+            return Compression.fromId(codec).decompress(contents).order(ByteOrder.BIG_ENDIAN);
+        } catch (IOException e) {
+            throw new IOException("Bad block at pos=" + pos + " in " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private boolean shouldVerify(boolean lookup, byte codec, boolean mapped) {
+        return switch (verification) {
+            case ALWAYS -> true;
+            case OFF -> false;
+            // a lookup block is cached (so read once) when it ends up on the heap
+            case CACHE_FILL -> !lookup || (cache != null && (codec != Compression.NONE.id() || !mapped));
+        };
+    }
+
+    private static byte[] heapCopy(ByteBuffer b) {
+        byte[] out = new byte[b.remaining()];
+        b.get(b.position(), out);
+        return out;
+    }
+
+    /** The v4 footer positioned after the magic check, or null if this isn't a (sane) v4 file. */
+    private ByteBuffer v4Footer(long size) throws IOException {
+        if (size < TableBuilder.FOOTER_SIZE) return null;
+        ByteBuffer f = ByteBuffer.allocate(TableBuilder.FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        if (ch.read(f, size - TableBuilder.FOOTER_SIZE) != TableBuilder.FOOTER_SIZE) return null;
+        byte[] magic = new byte[TableBuilder.MAGIC4.length];
+        f.get(TableBuilder.FOOTER_SIZE - magic.length, magic);
+        if (!Arrays.equals(magic, TableBuilder.MAGIC4)) return null;
+        long metaOffset = f.getLong(0);
+        long bloomOffset = f.getLong(24);
+        int bloomSize = f.getInt(32);
+        boolean sane = metaOffset >= 0
+                && bloomOffset >= metaOffset
+                && bloomSize >= 0
+                && bloomOffset + bloomSize + TableBuilder.TRAILER_SIZE == size - TableBuilder.FOOTER_SIZE;
+        return sane ? f.rewind() : null;
+    }
+
+    private byte[] readRegion(long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE - 8) throw new IOException("region too large: " + (to - from));
+        ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, from + buf.position()) < 0) throw new EOFException("Truncated region at " + from);
+        }
+        return buf.array();
+    }
+
+    /** Same idea for v2: [count:int32][indexOffset:int64] header, "SST2" footer. */
+    private long v2IndexOffset(long size) throws IOException {
+        if (size < V2_HEADER_SIZE + MAGIC2.length) return -1;
+        if (!hasFooter(size, MAGIC2)) return -1;
+
+        ByteBuffer hdr = ByteBuffer.allocate(V2_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        if (ch.read(hdr, 0) != V2_HEADER_SIZE) return -1;
+        hdr.flip();
+        int count = hdr.getInt();
+        long indexOffset = hdr.getLong();
+        boolean sane = count >= 0
+                && indexOffset >= V2_HEADER_SIZE
+                && indexOffset + 4 <= size - MAGIC2.length;
+        return sane ? indexOffset : -1;
+    }
+
+    private boolean hasFooter(long size, byte[] magic) throws IOException {
+        ByteBuffer footer = ByteBuffer.allocate(magic.length);
+        if (ch.read(footer, size - magic.length) != magic.length) return false;
+        return Arrays.equals(footer.array(), magic);
     }
 
     @Override
     public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            if (!opened) return;
+        }
+        if (cache != null) cache.invalidateFile(fileId);
+        chunks = null; // unmapped by the GC once in-flight lookups let go of their slices
         ch.close();
     }
 
@@ -6,89 +6,128 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /** SST v3: Header [count:int32][indexOffset:int64][bloomOffset:int64], Footer "SST3"
  *  Index = sparse keys -> entry offsets, Bloom = all keys.
+ *  Entries are [keyLen:int32][valLen:int32][key][value], sorted by unsigned key bytes.
+ *  Files from the original writer are sorted by String instead, which only differs for
+ *  keys with characters from U+E000 up; SstReader copes with both.
  */
 public final class SstWriter {
-    private static final byte[] MAGIC3 = new byte[]{'S','S','T','3'};
-    private static final int INDEX_SPAN = 64;
+    static final byte[] MAGIC3 = new byte[]{'S','S','T','3'};
+    static final int HEADER_SIZE = 4 + 8 + 8;
+    static final int INDEX_SPAN = 64;
+    private static final int WRITE_BUFFER = 64 << 10;
 
-    public static Path write(Path dir, String tableName, Map<String,String> data) throws IOException {
+    /** Write {@code data} (any order) as dir/tableName; keys and values are raw bytes. */
+    public static Path write(Path dir, String tableName, Map<byte[], byte[]> data) throws IOException {
         Files.createDirectories(dir);
         Path p = dir.resolve(tableName);
 
-        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE_NEW,
+        TreeMap<byte[], byte[]> sorted = new TreeMap<>(Memtable.KEY_ORDER);
+        sorted.putAll(data);
+        write(p, sorted.entrySet().iterator(), sorted.size());
+        return p;
+    }
+
+    /**
+     * Stream already-sorted entries into a new v3 table at {@code out} (must not exist).
+     * {@code expectedCount} only sizes the bloom filter; the header gets the real count.
+     */
+    public static void write(Path out, Iterator<Map.Entry<byte[], byte[]>> sorted, int expectedCount) throws IOException {
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE_NEW,
                 StandardOpenOption.WRITE, StandardOpenOption.READ)) {
 
-            TreeMap<String,String> sorted = (data instanceof TreeMap<?,?> t)
-                    ? (TreeMap<String,String>) data
-                    : new TreeMap<>(data);
+            ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER).order(ByteOrder.BIG_ENDIAN);
 
-            // Header placeholder
-            ByteBuffer hdr = ByteBuffer.allocate(4 + 8 + 8).order(ByteOrder.BIG_ENDIAN);
-            hdr.putInt(sorted.size()); // count
-            hdr.putLong(0L);           // indexOffset
-            hdr.putLong(0L);           // bloomOffset
-            hdr.flip(); ch.write(hdr);
+            // Header placeholder, patched at the end
+            buf.putInt(0);     // count
+            buf.putLong(0L);   // indexOffset
+            buf.putLong(0L);   // bloomOffset
+            long pos = HEADER_SIZE;
 
             // Entries + collect index + bloom
-            List<String> indexKeys = new ArrayList<>();
+            List<byte[]> indexKeys = new ArrayList<>();
             List<Long>   indexOffs = new ArrayList<>();
-            BloomFilter bloom = new BloomFilter(Math.max(1024, sorted.size() * 10), 7);
-
-            int i = 0;
-            for (var e : sorted.entrySet()) {
-                long entryStart = ch.position();
-                if (i % INDEX_SPAN == 0) {
-                    indexKeys.add(e.getKey());
-                    indexOffs.add(entryStart);
+            BloomFilter bloom = new BloomFilter(Math.max(1024, expectedCount * 10), 7);
+
+            int count = 0;
+            byte[] prev = null;
+            while (sorted.hasNext()) {
+                var e = sorted.next();
+                byte[] kb = e.getKey();
+                byte[] vb = e.getValue();
+                if (prev != null && Memtable.KEY_ORDER.compare(prev, kb) >= 0) {
+                    throw new IllegalArgumentException("keys not strictly ascending in " + out);
+                }
+                prev = kb;
+                if (count % INDEX_SPAN == 0) {
+                    indexKeys.add(kb);
+                    indexOffs.add(pos);
                 }
-                byte[] kb = e.getKey().getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                byte[] vb = e.getValue().getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                // bloom add
                 bloom.add(kb);
 
-                ByteBuffer meta = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
-                meta.putInt(kb.length).putInt(vb.length).flip();
-                ch.write(meta);
-                ch.write(ByteBuffer.wrap(kb));
-                ch.write(ByteBuffer.wrap(vb));
-                i++;
+                ensure(ch, buf, 8);
+                buf.putInt(kb.length).putInt(vb.length);
+                putBytes(ch, buf, kb);
+                putBytes(ch, buf, vb);
+                pos += 8 + kb.length + vb.length;
+                count++;
             }
 
             // Write index
-            long indexOffset = ch.position();
-            ByteBuffer idxHdr = ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN);
-            idxHdr.putInt(indexKeys.size()).flip();
-            ch.write(idxHdr);
-            for (int j=0;j<indexKeys.size();j++) {
-                byte[] kb = indexKeys.get(j).getBytes(java.nio.charset.StandardCharsets.UTF_8);
-                ByteBuffer rec = ByteBuffer.allocate(4 + kb.length + 8).order(ByteOrder.BIG_ENDIAN);
-                rec.putInt(kb.length).put(kb).putLong(indexOffs.get(j)).flip();
-                ch.write(rec);
+            long indexOffset = pos;
+            ensure(ch, buf, 4);
+            buf.putInt(indexKeys.size());
+            for (int j = 0; j < indexKeys.size(); j++) {
+                byte[] kb = indexKeys.get(j);
+                ensure(ch, buf, 4);
+                buf.putInt(kb.length);
+                putBytes(ch, buf, kb);
+                ensure(ch, buf, 8);
+                buf.putLong(indexOffs.get(j));
+                pos += 4 + kb.length + 8;
             }
+            pos += 4;
 
-            // Write bloom block
-            long bloomOffset = ch.position();
-            byte[] bloomBytes = bloom.toBytes();
-            ch.write(ByteBuffer.wrap(bloomBytes));
-
-            // Footer
-            ch.write(ByteBuffer.wrap(MAGIC3));
+            // Write bloom block + footer
+            long bloomOffset = pos;
+            putBytes(ch, buf, bloom.toBytes());
+            putBytes(ch, buf, MAGIC3);
+            drain(ch, buf);
 
-            // Patch header with offsets
-            ByteBuffer patch = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
-            patch.putLong(indexOffset).putLong(bloomOffset).flip();
-            ch.position(4); // after count
-            ch.write(patch);
+            // Patch header with count and offsets
+            ByteBuffer patch = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            patch.putInt(count).putLong(indexOffset).putLong(bloomOffset).flip();
+            while (patch.hasRemaining()) ch.write(patch, patch.position());
 
             ch.force(true);
         }
-        return p;
     }
-}
 
+    /** Make room for a small fixed-size field. */
+    private static void ensure(FileChannel ch, ByteBuffer buf, int need) throws IOException {
+        if (buf.remaining() < need) drain(ch, buf);
+    }
+
+    /** Append raw bytes, writing through for anything larger than the buffer. */
+    private static void putBytes(FileChannel ch, ByteBuffer buf, byte[] b) throws IOException {
+        if (buf.remaining() < b.length) drain(ch, buf);
+        if (buf.remaining() >= b.length) {
+            buf.put(b);
+            return;
+        }
+        ByteBuffer big = ByteBuffer.wrap(b);
+        while (big.hasRemaining()) ch.write(big);
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+}
@@ -0,0 +1,109 @@
+package com.neel.warpkv.storage;
+
+/**
+ * Open-time settings for a KvStore. Mutable, chainable; read once when the store opens.
+ * Runtime-tunable knobs (e.g. flush threshold) stay as setters on KvStore itself.
+ */
+public final class StoreOptions {
+    private Durability defaultDurability = Durability.FSYNC;
+    private long walSyncIntervalMillis = 50;
+    private SstReader.ReadMode sstReadMode = SstReader.ReadMode.CHANNEL;
+    private int blockSize = TableBuilder.DEFAULT_BLOCK_SIZE;
+    private BlockCache blockCache;
+    private CompactionStyle compactionStyle = CompactionStyle.SIZE_TIERED;
+    private Compression compression = Compression.NONE;
+    private ChecksumVerification checksumVerification = ChecksumVerification.ALWAYS;
+    private boolean autoCompaction = true;
+
+    public static StoreOptions defaults() {
+        return new StoreOptions();
+    }
+
+    /** Durability used by put/delete overloads that don't take one. */
+    public Durability defaultDurability() { return defaultDurability; }
+
+    public StoreOptions defaultDurability(Durability d) {
+        if (d == null) throw new IllegalArgumentException("durability == null");
+        this.defaultDurability = d;
+        return this;
+    }
+
+    /** How often the WAL fsyncs records written with {@link Durability#ASYNC}. */
+    public long walSyncIntervalMillis() { return walSyncIntervalMillis; }
+
+    public StoreOptions walSyncIntervalMillis(long ms) {
+        if (ms <= 0) throw new IllegalArgumentException("walSyncIntervalMillis must be > 0");
+        this.walSyncIntervalMillis = ms;
+        return this;
+    }
+
+    /** How SstReaders access table files: positional channel reads or mmap. */
+    public SstReader.ReadMode sstReadMode() { return sstReadMode; }
+
+    public StoreOptions sstReadMode(SstReader.ReadMode mode) {
+        if (mode == null) throw new IllegalArgumentException("mode == null");
+        this.sstReadMode = mode;
+        return this;
+    }
+
+    /** Target uncompressed size of SST data blocks written by flushes (4-16 KiB). */
+    public int blockSize() { return blockSize; }
+
+    public StoreOptions blockSize(int bytes) {
+        if (bytes < TableBuilder.MIN_BLOCK_SIZE || bytes > TableBuilder.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be in [" + TableBuilder.MIN_BLOCK_SIZE
+                    + ", " + TableBuilder.MAX_BLOCK_SIZE + "]");
+        }
+        this.blockSize = bytes;
+        return this;
+    }
+
+    /** Shared cache for SST data blocks (may be shared by several stores); null = none. */
+    public BlockCache blockCache() { return blockCache; }
+
+    public StoreOptions blockCache(BlockCache cache) {
+        this.blockCache = cache;
+        return this;
+    }
+
+    /** How background compaction organizes SSTs. Can be changed between opens. */
+    public CompactionStyle compactionStyle() { return compactionStyle; }
+
+    public StoreOptions compactionStyle(CompactionStyle style) {
+        if (style == null) throw new IllegalArgumentException("style == null");
+        this.compactionStyle = style;
+        return this;
+    }
+
+    /**
+     * Codec for data blocks of newly written SSTs (flushes and compaction output). Existing
+     * tables keep theirs, so this can change between opens. Pair it with a block cache.
+     */
+    public Compression compression() { return compression; }
+
+    public StoreOptions compression(Compression c) {
+        if (c == null) throw new IllegalArgumentException("compression == null");
+        this.compression = c;
+        return this;
+    }
+
+    /** Which reads check CRC32Cs (SST blocks and WAL replay); writes always store them. */
+    public ChecksumVerification checksumVerification() { return checksumVerification; }
+
+    public StoreOptions checksumVerification(ChecksumVerification v) {
+        if (v == null) throw new IllegalArgumentException("verification == null");
+        this.checksumVerification = v;
+        return this;
+    }
+
+    /**
+     * Whether flushes (and opening) schedule background compaction. With it off, tables
+     * only merge on an explicit {@link KvStore#compact()}: for bulk loads and benchmarks.
+     */
+    public boolean autoCompaction() { return autoCompaction; }
+
+    public StoreOptions autoCompaction(boolean on) {
+        this.autoCompaction = on;
+        return this;
+    }
+}
@@ -0,0 +1,181 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams sorted entries into a block-based table (SST v4, footer "SST4").
+ *
+ * Layout:
+ *   [data block][trailer] ...       prefix-compressed entries (see BlockBuilder), ~blockSize each
+ *   [meta][trailer]                 varints: entryCount, firstKey, lastKey, maxSeq
+ *   [index block][trailer]          BlockBuilder block: last key of each data block ->
+ *                                   varint offset + varint size of that block
+ *   [bloom][trailer]                BloomFilter.toBytes() over all keys
+ *   footer (44 bytes)               metaOffset:8 metaSize:4 indexOffset:8 indexSize:4
+ *                                   bloomOffset:8 bloomSize:4 revision:4 "SST4"
+ *
+ * Revision 3 stores each entry's sequence number in the data blocks and the largest
+ * one in the meta block. Revision 2 tags data-block value lengths with a tombstone bit
+ * (see BlockBuilder) but has no sequence numbers; revision 1 has plain lengths and no deletes.
+ *
+ * Every block trailer is [codec:1][crc32c:4] where the CRC covers the stored contents +
+ * codec byte; sizes in handles are stored sizes and exclude the trailer. Data blocks
+ * may be compressed (codec = {@link Compression#id()}); meta, index and bloom never are.
+ * All fixed-width ints are BIG_ENDIAN.
+ */
+public final class TableBuilder implements AutoCloseable {
+    static final byte[] MAGIC4 = new byte[]{'S','S','T','4'};
+    static final int FOOTER_SIZE = 8 + 4 + 8 + 4 + 8 + 4 + 4 + 4;
+    static final int TRAILER_SIZE = 1 + 4;
+    static final int REVISION = 3;
+    static final int FIRST_TAGGED_REVISION = 2;
+    static final int FIRST_SEQUENCED_REVISION = 3;
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 10;
+    public static final int MIN_BLOCK_SIZE = 4 << 10;
+    public static final int MAX_BLOCK_SIZE = 16 << 10;
+
+    private final Path out;
+    private final FileChannel ch;
+    private final int blockSize;
+    private final Compression compression;
+    private final BlockBuilder data = new BlockBuilder(true);
+    private final BlockBuilder index = new BlockBuilder(false);
+    private final BloomFilter bloom;
+    private long offset;
+    private long count;
+    private byte[] firstKey;
+    private byte[] lastKey;
+    private long maxSeq;
+    private boolean finished;
+
+    public TableBuilder(Path out, int blockSize, long expectedCount) throws IOException {
+        this(out, blockSize, expectedCount, Compression.NONE);
+    }
+
+    /** {@code expectedCount} only sizes the bloom filter. {@code out} must not exist. */
+    public TableBuilder(Path out, int blockSize, long expectedCount, Compression compression) throws IOException {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must be in [" + MIN_BLOCK_SIZE + ", " + MAX_BLOCK_SIZE + "]");
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        this.compression = compression == null ? Compression.NONE : compression;
+        this.bloom = new BloomFilter((int) Math.min(Integer.MAX_VALUE - 7, Math.max(1024, expectedCount * 10)), 7);
+        this.ch = FileChannel.open(out, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    public void add(byte[] key, byte[] value) throws IOException {
+        add(key, 0, value);
+    }
+
+    /** Keys must be strictly ascending (unsigned byte order); value may be a tombstone. */
+    public void add(byte[] key, long seq, byte[] value) throws IOException {
+        if (finished) throw new IllegalStateException("already finished");
+        if (lastKey != null && Memtable.KEY_ORDER.compare(lastKey, key) >= 0) {
+            throw new IllegalArgumentException("keys not strictly ascending in " + out);
+        }
+        if (seq < 0) throw new IllegalArgumentException("seq < 0");
+        if (firstKey == null) firstKey = key;
+        lastKey = key;
+        count++;
+        maxSeq = Math.max(maxSeq, seq);
+        bloom.add(key);
+        data.add(key, seq, value);
+        if (data.estimatedSize() >= blockSize) flushDataBlock();
+    }
+
+    public long entryCount() {
+        return count;
+    }
+
+    /** Bytes written so far plus the pending data block (for output-file size limits). */
+    public long estimatedFileSize() {
+        return offset + data.estimatedSize();
+    }
+
+    /** Write the remaining blocks and footer, fsync, and close. */
+    public void finish() throws IOException {
+        if (finished) throw new IllegalStateException("already finished");
+        flushDataBlock();
+
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        Varint.put(meta, count);
+        byte[] fk = firstKey == null ? new byte[0] : firstKey;
+        byte[] lk = lastKey == null ? new byte[0] : lastKey;
+        Varint.put(meta, fk.length);
+        meta.write(fk, 0, fk.length);
+        Varint.put(meta, lk.length);
+        meta.write(lk, 0, lk.length);
+        Varint.put(meta, maxSeq);
+
+        long metaOffset = offset;
+        int metaSize = writeBlock(meta.toByteArray());
+        long indexOffset = offset;
+        int indexSize = writeBlock(index.finish());
+        long bloomOffset = offset;
+        int bloomSize = writeBlock(bloom.toBytes());
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        footer.putLong(metaOffset).putInt(metaSize)
+              .putLong(indexOffset).putInt(indexSize)
+              .putLong(bloomOffset).putInt(bloomSize)
+              .putInt(REVISION).put(MAGIC4).flip();
+        writeFully(footer);
+
+        ch.force(true);
+        ch.close();
+        finished = true;
+    }
+
+    /** Close and delete a half-written table. */
+    public void abandon() throws IOException {
+        finished = true;
+        ch.close();
+        Files.deleteIfExists(out);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) abandon();
+    }
+
+    private void flushDataBlock() throws IOException {
+        if (data.isEmpty()) return;
+        byte[] last = data.lastKey();
+        long blockOffset = offset;
+        byte[] raw = data.finish();
+        byte[] packed = compression.compress(raw);
+        int size = packed != null ? writeBlock(packed, compression.id()) : writeBlock(raw, Compression.NONE.id());
+        data.reset();
+
+        ByteArrayOutputStream handle = new ByteArrayOutputStream(16);
+        Varint.put(handle, blockOffset);
+        Varint.put(handle, size);
+        index.add(last, handle.toByteArray());
+    }
+
+    private int writeBlock(byte[] contents) throws IOException {
+        return writeBlock(contents, Compression.NONE.id());
+    }
+
+    /** Writes contents + trailer; returns the contents size. */
+    private int writeBlock(byte[] contents, byte codec) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        trailer.put(codec).putInt(Checksums.crc(contents, 0, contents.length, codec)).flip();
+        writeFully(ByteBuffer.wrap(contents));
+        writeFully(trailer);
+        return contents.length;
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) offset += ch.write(b);
+    }
+}
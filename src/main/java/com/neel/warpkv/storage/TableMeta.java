@@ -0,0 +1,53 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What the store needs to know about a table without opening it: enough to place it in
+ * its level, route lookups by key range and pick compactions. The {@link Manifest}
+ * records one per live table, so {@link SstReader} opens the file (footer, index,
+ * bloom) only on first real access.
+ *
+ * Encoded as [nameLen:varint][name][fileSize:varint][format:1][entryCount+1:varint]
+ * [maxSeq:varint] and, if entryCount > 0, [firstLen:varint][first][lastLen:varint][last].
+ */
+record TableMeta(String name, long fileSize, int formatVersion, long entryCount,
+                 byte[] firstKey, byte[] lastKey, long maxSequence) {
+
+    void encode(ByteArrayOutputStream out) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        Varint.put(out, n.length);
+        out.write(n, 0, n.length);
+        Varint.put(out, fileSize);
+        out.write(formatVersion);
+        Varint.put(out, entryCount + 1); // -1 (unknown) encodes as 0
+        Varint.put(out, maxSequence);
+        if (entryCount > 0) {
+            Varint.put(out, firstKey.length);
+            out.write(firstKey, 0, firstKey.length);
+            Varint.put(out, lastKey.length);
+            out.write(lastKey, 0, lastKey.length);
+        }
+    }
+
+    static TableMeta decode(ByteBuffer b) throws IOException {
+        byte[] n = new byte[Varint.getInt(b)];
+        b.get(n);
+        long size = Varint.getLong(b);
+        int format = b.get();
+        long count = Varint.getLong(b) - 1;
+        long maxSeq = Varint.getLong(b);
+        byte[] first = null, last = null;
+        if (count > 0) {
+            first = new byte[Varint.getInt(b)];
+            b.get(first);
+            last = new byte[Varint.getInt(b)];
+            b.get(last);
+        }
+        if (size < 0 || format < 1 || format > 4 || maxSeq < 0) throw new IOException("bad table entry");
+        return new TableMeta(new String(n, StandardCharsets.UTF_8), size, format, count, first, last, maxSeq);
+    }
+}
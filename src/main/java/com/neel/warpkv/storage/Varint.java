@@ -0,0 +1,36 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** LEB128-style unsigned varints (7 bits per byte, low bits first), as used by the block format. */
+final class Varint {
+    private Varint() {}
+
+    static void put(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Reads a varint at the buffer's position and advances it. */
+    static long getLong(ByteBuffer buf) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buf.hasRemaining()) throw new IOException("truncated varint");
+            int b = buf.get() & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("varint too long");
+    }
+
+    static int getInt(ByteBuffer buf) throws IOException {
+        long v = getLong(buf);
+        if (v < 0 || v > Integer.MAX_VALUE) throw new IOException("varint out of int range: " + v);
+        return (int) v;
+    }
+}
@@ -0,0 +1,74 @@
+package com.neel.warpkv.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Immutable set of live tables per level, published by {@link KvStore} through an
+ * AtomicReference. Readers {@link #tryRef()} the current version (no lock; a failed
+ * ref only means a newer version was just installed, so they re-read and retry) and
+ * unref it when done. Flushes and compactions build the next version with
+ * {@link #with} and swap it in with a CAS.
+ *
+ * A version holds one reference on each of its tables and drops them when its own
+ * count reaches zero: the store's reference goes when it is replaced, readers' when
+ * they finish. So a table that compaction removed (and marked obsolete) is closed and
+ * deleted once the last version containing it is gone.
+ */
+final class Version {
+    private final List<List<SstReader>> levels;   // L0 newest first; deeper levels sorted by key
+    private final AtomicInteger refs = new AtomicInteger(1);   // 1 = the store's, while current
+
+    /** Takes a reference on every table in {@code levels} (whose lists it keeps). */
+    Version(List<List<SstReader>> levels) {
+        List<List<SstReader>> frozen = new ArrayList<>(levels.size());
+        for (List<SstReader> level : levels) {
+            for (SstReader t : level) t.ref();
+            frozen.add(Collections.unmodifiableList(level));
+        }
+        this.levels = Collections.unmodifiableList(frozen);
+    }
+
+    static Version empty(int numLevels) {
+        List<List<SstReader>> levels = new ArrayList<>(numLevels);
+        for (int i = 0; i < numLevels; i++) levels.add(new ArrayList<>());
+        return new Version(levels);
+    }
+
+    /** Level i's tables (unmodifiable). */
+    List<SstReader> level(int i) {
+        return levels.get(i);
+    }
+
+    List<List<SstReader>> levels() {
+        return levels;
+    }
+
+    /** The next version: a copy of these levels with {@code change} applied to it. */
+    Version with(Consumer<List<List<SstReader>>> change) {
+        List<List<SstReader>> copy = new ArrayList<>(levels.size());
+        for (List<SstReader> level : levels) copy.add(new ArrayList<>(level));
+        change.accept(copy);
+        return new Version(copy);
+    }
+
+    /** Pin this version; false if it has already been released (re-read the current one). */
+    boolean tryRef() {
+        int n;
+        do {
+            n = refs.get();
+            if (n <= 0) return false;
+        } while (!refs.compareAndSet(n, n + 1));
+        return true;
+    }
+
+    void unref() {
+        if (refs.decrementAndGet() != 0) return;
+        for (List<SstReader> level : levels) {
+            for (SstReader t : level) t.unref();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.neel.warpkv.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One atomic change to the set of live tables: a flush, a compaction, a level move or
+ * an upgrade. Applied as "remove, then add", so re-adding a removed name (a level
+ * move) replaces its entry.
+ *
+ * Encoded as a sequence of tagged fields:
+ *   REMOVE        [name]
+ *   ADD           [level:varint][TableMeta]
+ *   ADD_UNOPENED  [level:varint][name]          table known only by name (opened eagerly)
+ *   LAST_SEQUENCE [seq:varint]                  highest sequence durable in tables
+ * where [name] is [len:varint][UTF-8 bytes].
+ */
+final class VersionEdit {
+    private static final byte REMOVE = 1;
+    private static final byte ADD = 2;
+    private static final byte ADD_UNOPENED = 3;
+    private static final byte LAST_SEQUENCE = 4;
+
+    /** A live table: its level and, unless only its name is known, its metadata. */
+    record Table(String name, int level, TableMeta meta) {}
+
+    private final List<String> removed = new ArrayList<>();
+    private final Map<String, Table> added = new LinkedHashMap<>();
+    private long lastSequence = -1;
+
+    VersionEdit removeTable(String name) {
+        removed.add(name);
+        return this;
+    }
+
+    VersionEdit addTable(int level, TableMeta meta) {
+        added.put(meta.name(), new Table(meta.name(), level, meta));
+        return this;
+    }
+
+    VersionEdit addTable(Table t) {
+        added.put(t.name(), t);
+        return this;
+    }
+
+    VersionEdit lastSequence(long seq) {
+        lastSequence = Math.max(lastSequence, seq);
+        return this;
+    }
+
+    List<String> removed() {
+        return removed;
+    }
+
+    Iterable<Table> added() {
+        return added.values();
+    }
+
+    /** -1 if this edit doesn't carry one. */
+    long lastSequence() {
+        return lastSequence;
+    }
+
+    boolean isEmpty() {
+        return removed.isEmpty() && added.isEmpty() && lastSequence < 0;
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        for (String name : removed) {
+            out.write(REMOVE);
+            putName(out, name);
+        }
+        for (Table t : added.values()) {
+            out.write(t.meta() != null ? ADD : ADD_UNOPENED);
+            Varint.put(out, t.level());
+            if (t.meta() != null) t.meta().encode(out); else putName(out, t.name());
+        }
+        if (lastSequence >= 0) {
+            out.write(LAST_SEQUENCE);
+            Varint.put(out, lastSequence);
+        }
+        return out.toByteArray();
+    }
+
+    static VersionEdit decode(ByteBuffer b) throws IOException {
+        VersionEdit e = new VersionEdit();
+        try {
+            while (b.hasRemaining()) {
+                byte tag = b.get();
+                switch (tag) {
+                    case REMOVE -> e.removeTable(getName(b));
+                    case ADD -> {
+                        int level = Varint.getInt(b);
+                        e.addTable(level, TableMeta.decode(b));
+                    }
+                    case ADD_UNOPENED -> {
+                        int level = Varint.getInt(b);
+                        String name = getName(b);
+                        e.addTable(new Table(name, level, null));
+                    }
+                    case LAST_SEQUENCE -> e.lastSequence(Varint.getLong(b));
+                    default -> throw new IOException("unknown version edit tag " + tag);
+                }
+            }
+        } catch (RuntimeException ex) {
+            throw new IOException("malformed version edit: " + ex, ex);
+        }
+        return e;
+    }
+
+    private static void putName(ByteArrayOutputStream out, String name) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        Varint.put(out, n.length);
+        out.write(n, 0, n.length);
+    }
+
+    private static String getName(ByteBuffer b) throws IOException {
+        byte[] n = new byte[Varint.getInt(b)];
+        b.get(n);
+        return new String(n, StandardCharsets.UTF_8);
+    }
+}
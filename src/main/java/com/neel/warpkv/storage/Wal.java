@@ -6,78 +6,416 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Write-ahead log with group commit.
+ *
+ * Writers enqueue an encoded record and wait. Whichever waiter finds no write in
+ * progress becomes the leader: it takes everything queued so far, writes it with a
+ * single gathering write, fsyncs once, and wakes every writer whose record made it
+ * into that batch. Writers arriving during the fsync queue up for the next batch.
+ *
+ * {@link Durability#ASYNC} records are only queued; they ride along with the next
+ * fsync'ing writer or the background sync that runs every {@code syncIntervalMillis}.
+ *
+ * The log is split into numbered segments ({@code wal_000001.log}, ...). The store
+ * {@link #rotate()}s to a fresh segment whenever it freezes a memtable, and once that
+ * memtable is safely in an SST it calls {@link #deleteSegmentsBefore(long)}, so replay
+ * only ever covers data that hasn't been flushed yet. A pre-segment {@code wal.log}
+ * is treated as segment 0.
+ *
+ * Records carry the write's sequence number; records from before sequence numbers
+ * (types 1 and 2) are numbered in log order on replay. New records also carry a
+ * CRC32C. A bad record at the end of the newest segment is a torn write and is cut
+ * off; anywhere else it fails replay (see {@link #replay}).
+ */
 public final class Wal implements AutoCloseable {
-    // Record layout: [type:1][keyLen:4][valLen:4][keyBytes][valBytes]
+    // Record layout: [type:1][seq:8][keyLen:4][valLen:4][keyBytes][valBytes]
+    // (PUT / DEL from older logs have no seq field)
+    // BATCH: [type:1][firstSeq:8][len:4][WriteBatch.encode() bytes], op i gets firstSeq + i
+    // Checked types (what's written now) are [type:1][crc32c:4] + the body of type - CHECKED,
+    // the CRC taken over that body followed by the type byte (as in SST block trailers).
     private static final byte PUT = 1;
     private static final byte DEL = 2;
+    private static final byte PUT_SEQ = 3;
+    private static final byte DEL_SEQ = 4;
+    private static final byte BATCH = 5;
+    private static final byte CHECKED = 3;
+    private static final byte PUT_CHECKED = PUT_SEQ + CHECKED;
+    private static final byte DEL_CHECKED = DEL_SEQ + CHECKED;
+    private static final byte BATCH_CHECKED = BATCH + CHECKED;
+    private static final int CRC_SIZE = 4;
+    private static final int LENGTHS_SIZE = 4 + 4;
+    private static final int MAX_BATCH_LEN = 1 << 28;
+    private static final String LEGACY_NAME = "wal.log";
 
-    private final Path walPath;
-    private final FileChannel ch;
+    private final Path dir;
+    private FileChannel ch;           // current segment; swapped only by rotate() with no leader active
+    private long currentSegment;
+
+    // ----- group commit state (guarded by lock) -----
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long enqueuedSeq = 0;     // ticket of the last queued record
+    private long syncedSeq = 0;       // every ticket <= this is durable
+    private boolean leaderActive = false;
+    private IOException failure;      // sticky: once a write/fsync fails the log is unusable
+
+    private final ScheduledExecutorService syncer;
 
     public Wal(Path dataDir) throws IOException {
+        this(dataDir, 50);
+    }
+
+    public Wal(Path dataDir, long syncIntervalMillis) throws IOException {
         Files.createDirectories(dataDir);
-        this.walPath = dataDir.resolve("wal.log");
-        this.ch = FileChannel.open(walPath,
+        this.dir = dataDir;
+        // Never append to a segment from a previous run: replay covers those, new writes go to a fresh one.
+        // An empty newest segment (a run that died before writing) is fresh enough to reuse.
+        TreeMap<Long, Path> existing = listSegments();
+        long last = existing.isEmpty() ? 0 : existing.lastKey();
+        this.currentSegment = last > 0 && Files.size(existing.get(last)) == 0 ? last : last + 1;
+        this.ch = openSegment(currentSegment);
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "warpkv-wal-sync");
+            t.setDaemon(true);
+            return t;
+        });
+        syncer.scheduleWithFixedDelay(this::backgroundSync,
+                syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Receives replayed records; deletes come with {@link Memtable#TOMBSTONE} as the value. */
+    @FunctionalInterface
+    public interface Replayer {
+        void apply(byte[] key, long seq, byte[] value);
+    }
+
+    /** FSYNC waits for the group commit; ASYNC only queues. NONE never reaches the WAL. */
+    public void appendPut(long seq, byte[] key, byte[] value, Durability durability) throws IOException {
+        append(encode(PUT_CHECKED, seq, key, value), durability);
+    }
+
+    public void appendDelete(long seq, byte[] key, Durability durability) throws IOException {
+        append(encode(DEL_CHECKED, seq, key, null), durability);
+    }
+
+    /** One record for the whole batch, so replay applies all of it or (torn tail) none. */
+    public void appendBatch(long firstSeq, WriteBatch batch, Durability durability) throws IOException {
+        if (batch.encodedSize() > MAX_BATCH_LEN) {
+            throw new IllegalArgumentException("batch too large: " + batch.encodedSize() + " bytes");
+        }
+        byte[] payload = batch.encode();
+        ByteBuffer rec = ByteBuffer.allocate(1 + CRC_SIZE + 8 + 4 + payload.length).order(ByteOrder.BIG_ENDIAN);
+        rec.put(BATCH_CHECKED).putInt(0).putLong(firstSeq).putInt(payload.length).put(payload);
+        append(seal(rec), durability);
+    }
+
+    public void appendPut(long seq, byte[] key, byte[] value) throws IOException {
+        appendPut(seq, key, value, Durability.FSYNC);
+    }
+
+    public void appendDelete(long seq, byte[] key) throws IOException {
+        appendDelete(seq, key, Durability.FSYNC);
+    }
+
+    /** Write and fsync everything queued so far. */
+    public void sync() throws IOException {
+        lock.lock();
+        try {
+            syncUpTo(enqueuedSeq);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Segment number new appends currently go to. */
+    public long currentSegment() {
+        lock.lock();
+        try {
+            return currentSegment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Make everything queued so far durable in the current segment, then switch appends
+     * to a new segment. Returns the new segment's number: every record appended before
+     * this call lives in a segment with a smaller number.
+     */
+    public long rotate() throws IOException {
+        lock.lock();
+        try {
+            while (leaderActive || !pending.isEmpty()) {
+                if (leaderActive) synced.awaitUninterruptibly();
+                else syncUpTo(enqueuedSeq);
+            }
+            if (failure != null) throw new IOException("WAL unusable after earlier failure", failure);
+            FileChannel next = openSegment(currentSegment + 1);
+            ch.close();
+            ch = next;
+            currentSegment++;
+            IoUtil.fsyncDir(dir);
+            return currentSegment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Delete every segment numbered below {@code segment} (and the legacy wal.log). */
+    public void deleteSegmentsBefore(long segment) throws IOException {
+        boolean deleted = Files.deleteIfExists(dir.resolve(LEGACY_NAME));
+        for (var e : listSegments().headMap(segment).entrySet()) {
+            Files.deleteIfExists(e.getValue());
+            deleted = true;
+        }
+        if (deleted) IoUtil.fsyncDir(dir);
+    }
+
+    private FileChannel openSegment(long n) throws IOException {
+        FileChannel c = FileChannel.open(segmentPath(n),
                 StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
-        this.ch.position(this.ch.size()); // append at end
+        c.position(c.size()); // append at end
+        return c;
     }
 
-    public synchronized void appendPut(String key, byte[] value) throws IOException {
-        byte[] kb = key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        ByteBuffer hdr = ByteBuffer.allocate(1 + 4 + 4).order(ByteOrder.BIG_ENDIAN);
-        hdr.put(PUT).putInt(kb.length).putInt(value.length).flip();
-        ch.write(hdr);
-        ch.write(ByteBuffer.wrap(kb));
-        ch.write(ByteBuffer.wrap(value));
-        ch.force(true); // fsync so crashes don’t lose data
+    private Path segmentPath(long n) {
+        return dir.resolve(String.format("wal_%06d.log", n));
     }
 
-    public synchronized void appendDelete(String key) throws IOException {
-        byte[] kb = key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-        ByteBuffer hdr = ByteBuffer.allocate(1 + 4 + 4).order(ByteOrder.BIG_ENDIAN);
-        hdr.put(DEL).putInt(kb.length).putInt(0).flip();
-        ch.write(hdr);
-        ch.write(ByteBuffer.wrap(kb));
-        ch.force(true);
+    /** Existing segments by number, oldest first; the legacy wal.log maps to 0. */
+    private TreeMap<Long, Path> listSegments() throws IOException {
+        TreeMap<Long, Path> out = new TreeMap<>();
+        Path legacy = dir.resolve(LEGACY_NAME);
+        if (Files.exists(legacy)) out.put(0L, legacy);
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "wal_*.log")) {
+            for (Path p : ds) {
+                String n = p.getFileName().toString();
+                try {
+                    out.put(Long.parseLong(n.substring(4, n.length() - 4)), p);
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        return out;
+    }
+
+    private void backgroundSync() {
+        try {
+            sync();
+        } catch (IOException e) {
+            // already sticky in `failure`; the next appender will see it
+            System.err.println("WAL background sync failed: " + e.getMessage());
+        }
     }
 
-    public void replay(BiConsumer<String,String> applyPut, Consumer<String> applyDel) throws IOException {
-        if (!Files.exists(walPath)) return;
+    private static ByteBuffer encode(byte type, long seq, byte[] key, byte[] value) {
+        int vLen = value == null ? 0 : value.length;
+        ByteBuffer rec = ByteBuffer.allocate(1 + CRC_SIZE + 8 + LENGTHS_SIZE + key.length + vLen).order(ByteOrder.BIG_ENDIAN);
+        rec.put(type).putInt(0).putLong(seq).putInt(key.length).putInt(vLen).put(key);
+        if (value != null) rec.put(value);
+        return seal(rec);
+    }
+
+    /** Fill in the CRC of a fully written checked record and flip it for writing. */
+    private static ByteBuffer seal(ByteBuffer rec) {
+        byte[] a = rec.array();
+        int bodyStart = 1 + CRC_SIZE;
+        rec.putInt(1, Checksums.crc(a, bodyStart, rec.position() - bodyStart, a[0]));
+        return rec.flip();
+    }
+
+    /** Queue one record; for FSYNC, return once it (and everything queued before it) is fsynced. */
+    private void append(ByteBuffer record, Durability durability) throws IOException {
+        if (durability == Durability.NONE) return;
+        lock.lock();
+        try {
+            if (failure != null) throw new IOException("WAL unusable after earlier failure", failure);
+            pending.add(record);
+            long ticket = ++enqueuedSeq;
+            if (durability == Durability.FSYNC) syncUpTo(ticket);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caller holds lock. Leads or joins group commits until {@code ticket} is durable. */
+    private void syncUpTo(long ticket) throws IOException {
+        while (syncedSeq < ticket) {
+            if (failure != null) throw new IOException("WAL group commit failed", failure);
+            if (leaderActive) {
+                synced.awaitUninterruptibly();
+                continue;
+            }
+            // Become the leader for everything queued so far.
+            leaderActive = true;
+            List<ByteBuffer> batch = pending;
+            long batchEnd = enqueuedSeq;
+            pending = new ArrayList<>();
+            lock.unlock();
+            IOException err = null;
+            try {
+                writeBatch(batch);
+            } catch (IOException e) {
+                err = e;
+            } finally {
+                lock.lock();
+            }
+            leaderActive = false;
+            if (err != null) failure = err;
+            else syncedSeq = batchEnd;
+            synced.signalAll();
+        }
+    }
+
+    private void writeBatch(List<ByteBuffer> batch) throws IOException {
+        ByteBuffer[] bufs = batch.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer b : bufs) remaining += b.remaining();
+        while (remaining > 0) {
+            remaining -= ch.write(bufs);
+        }
+        ch.force(false); // one fsync for the whole group; file size changes are covered by fdatasync
+    }
+
+    /**
+     * Replays every segment older than the current one, oldest first. Call before appending.
+     * Unsequenced records are numbered after the highest sequence seen so far, starting
+     * above {@code lastSequence}. Returns the highest sequence replayed (or lastSequence).
+     * With {@code verify} off, record CRCs are skipped (lengths are still sanity-checked).
+     *
+     * Only the newest non-empty segment can end in a torn write (a crash mid-append); it
+     * is cut back to its last good record. Empty segments after it were opened by runs that
+     * never wrote anything. A bad record in an older segment means records were lost in the
+     * middle of the log, so replay fails rather than apply what follows.
+     */
+    public long replay(long lastSequence, boolean verify, Replayer replayer) throws IOException {
+        long last = lastSequence;
+        NavigableMap<Long, Path> segments = listSegments().headMap(currentSegment(), false);
+        long newestWritten = -1;
+        for (var e : segments.entrySet()) {
+            if (Files.size(e.getValue()) > 0) newestWritten = e.getKey();
+        }
+        for (var e : segments.entrySet()) {
+            Path path = e.getValue();
+            SegmentReplay r = replaySegment(path, last, verify, replayer);
+            last = r.last();
+            if (r.badRecordAt() < 0) continue;
+            if (e.getKey() < newestWritten) {
+                throw new IOException("corrupt WAL record at " + r.badRecordAt() + " in " + path
+                        + " (" + r.reason() + ") with newer segments after it");
+            }
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(r.badRecordAt()); // torn tail: drop it so nothing is appended after garbage
+                ch.force(false);
+            }
+        }
+        return last;
+    }
+
+    public long replay(long lastSequence, Replayer replayer) throws IOException {
+        return replay(lastSequence, true, replayer);
+    }
+
+    /** How far a segment replayed: badRecordAt is -1 if it was read to a clean end. */
+    private record SegmentReplay(long last, long badRecordAt, String reason) {}
+
+    private static SegmentReplay replaySegment(Path walPath, long last, boolean verify, Replayer replayer) throws IOException {
         try (FileChannel rc = FileChannel.open(walPath, StandardOpenOption.READ)) {
-            long pos;
-            while (true) {
-                pos = rc.position();
-                ByteBuffer hdr = ByteBuffer.allocate(1 + 4 + 4).order(ByteOrder.BIG_ENDIAN);
-                if (!readFully(rc, hdr)) break; // clean EOF
-                hdr.flip();
-                byte type = hdr.get();
-                int kLen = hdr.getInt();
-                int vLen = hdr.getInt();
-                // sanity
-                if (kLen < 0 || vLen < 0 || kLen > (1<<20) || vLen > (1<<26)) {
-                    rc.truncate(pos); break; // corrupt tail → truncate & stop
-                }
-                ByteBuffer kb = ByteBuffer.allocate(kLen);
-                if (!readFully(rc, kb)) { rc.truncate(pos); break; }
-                String key = new String(kb.array(), java.nio.charset.StandardCharsets.UTF_8);
-
-                if (type == PUT) {
-                    ByteBuffer vb = ByteBuffer.allocate(vLen);
-                    if (!readFully(rc, vb)) { rc.truncate(pos); break; }
-                    String val = new String(vb.array(), java.nio.charset.StandardCharsets.UTF_8);
-                    applyPut.accept(key, val);
-                } else if (type == DEL) {
-                    applyDel.accept(key);
-                } else {
-                    rc.truncate(pos); break;
+            long pos = 0;
+            try {
+                while (true) {
+                    pos = rc.position();
+                    ByteBuffer typeBuf = ByteBuffer.allocate(1);
+                    if (!readFully(rc, typeBuf)) return new SegmentReplay(last, -1, null); // clean EOF
+                    byte type = typeBuf.get(0);
+                    boolean checked = type >= PUT_CHECKED && type <= BATCH_CHECKED;
+                    byte base = checked ? (byte) (type - CHECKED) : type;
+                    if (base < PUT || base > BATCH) return new SegmentReplay(last, pos, "bad record type " + type);
+                    ByteBuffer crc = ByteBuffer.allocate(CRC_SIZE).order(ByteOrder.BIG_ENDIAN);
+                    if (checked && !readFully(rc, crc)) return new SegmentReplay(last, pos, "short record");
+
+                    ByteBuffer body = readBody(rc, base);
+                    if (body == null) return new SegmentReplay(last, pos, "bad record lengths");
+                    if (checked && verify && !Checksums.verify(body, type, crc.getInt(0))) {
+                        return new SegmentReplay(last, pos, "checksum mismatch");
+                    }
+                    long seq = apply(base, body, last, replayer);
+                    if (seq < 0) return new SegmentReplay(last, pos, "malformed record");
+                    last = Math.max(last, seq);
                 }
+            } catch (EOFException torn) {
+                return new SegmentReplay(last, pos, "partially written record");
             }
         }
     }
 
+    /** The record body after the type (and CRC) byte(s), or null if its lengths are insane. */
+    private static ByteBuffer readBody(FileChannel rc, byte base) throws IOException {
+        boolean hasSeq = base != PUT && base != DEL;
+        int hdrLen = base == BATCH ? 8 + 4 : (hasSeq ? 8 : 0) + LENGTHS_SIZE;
+        ByteBuffer hdr = ByteBuffer.allocate(hdrLen).order(ByteOrder.BIG_ENDIAN);
+        if (!readFully(rc, hdr)) return null;
+        long rest;
+        if (base == BATCH) {
+            int len = hdr.getInt(8);
+            if (len < 0 || len > MAX_BATCH_LEN) return null;
+            rest = len;
+        } else {
+            int kLen = hdr.getInt(hdrLen - 8);
+            int vLen = hdr.getInt(hdrLen - 4);
+            if (kLen < 0 || vLen < 0 || kLen > (1<<20) || vLen > (1<<26)) return null;
+            rest = kLen + (base == PUT || base == PUT_SEQ ? vLen : 0);
+        }
+        ByteBuffer body = ByteBuffer.allocate(hdrLen + (int) rest).order(ByteOrder.BIG_ENDIAN);
+        body.put(hdr.flip());
+        if (!readFully(rc, body)) return null;
+        return body.flip();
+    }
+
+    /** Apply a body read by {@link #readBody}; returns its (last) sequence, or -1 if it is corrupt. */
+    private static long apply(byte base, ByteBuffer body, long last, Replayer replayer) {
+        if (base == BATCH) {
+            long first = body.getLong();
+            body.getInt();
+            if (first < 0) return -1;
+            WriteBatch batch;
+            try {
+                batch = WriteBatch.decode(body);
+            } catch (IOException e) {
+                return -1;
+            }
+            for (int i = 0; i < batch.size(); i++) replayer.apply(batch.key(i), first + i, batch.value(i));
+            return first + Math.max(0, batch.size() - 1);
+        }
+        long seq = base == PUT_SEQ || base == DEL_SEQ ? body.getLong() : last + 1;
+        if (seq < 0) return -1;
+        byte[] k = new byte[body.getInt()];
+        int vLen = body.getInt();
+        body.get(k);
+        if (base == PUT || base == PUT_SEQ) {
+            byte[] v = new byte[vLen];
+            body.get(v);
+            replayer.apply(k, seq, v);
+        } else {
+            replayer.apply(k, seq, Memtable.TOMBSTONE);
+        }
+        return seq;
+    }
+
     private static boolean readFully(FileChannel c, ByteBuffer buf) throws IOException {
         while (buf.hasRemaining()) {
             int r = c.read(buf);
@@ -89,6 +427,17 @@ public final class Wal implements AutoCloseable {
         return true;
     }
 
-    @Override public void close() throws IOException { ch.close(); }
+    @Override public void close() throws IOException {
+        syncer.shutdown();
+        try {
+            syncer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sync(); // don't drop ASYNC records on a clean shutdown
+        } finally {
+            ch.close();
+        }
+    }
 }
-
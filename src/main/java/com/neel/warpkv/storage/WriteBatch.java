@@ -0,0 +1,136 @@
+package com.neel.warpkv.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and deletes applied together by {@link KvStore#write(WriteBatch)}: one WAL
+ * record, one range of sequence numbers (in the order the ops were added, so a later
+ * op on the same key wins), and all-or-nothing on recovery.
+ *
+ * Wire form (the WAL payload, also accepted by the server's /kv/batch), repeated:
+ *   [op:1][keyLen:4][valLen:4][key][value]     op 1 = put, 2 = delete (valLen 0); BIG_ENDIAN
+ */
+public final class WriteBatch {
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+    private static final int OP_HEADER_SIZE = 1 + 4 + 4;
+    private static final int MAX_KEY_LEN = 1 << 20;
+    private static final int MAX_VAL_LEN = 1 << 26;
+
+    private final List<byte[]> keys = new ArrayList<>();
+    private final List<byte[]> values = new ArrayList<>();   // TOMBSTONE for deletes
+    private int puts;
+    private long encodedSize;
+
+    public WriteBatch put(String key, String value) {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        if (value == null) throw new IllegalArgumentException("value == null");
+        return add(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public WriteBatch delete(String key) {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        return add(key.getBytes(StandardCharsets.UTF_8), Memtable.TOMBSTONE);
+    }
+
+    /** The arrays are kept, not copied: don't modify them until the batch is written. */
+    public WriteBatch put(byte[] key, byte[] value) {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        if (value == null) throw new IllegalArgumentException("value == null");
+        return add(key, Memtable.isTombstone(value) ? new byte[0] : value);
+    }
+
+    public WriteBatch delete(byte[] key) {
+        if (key == null) throw new IllegalArgumentException("key == null");
+        return add(key, Memtable.TOMBSTONE);
+    }
+
+    /** Number of ops. */
+    public int size() {
+        return keys.size();
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    public int putCount() {
+        return puts;
+    }
+
+    public int deleteCount() {
+        return keys.size() - puts;
+    }
+
+    public void clear() {
+        keys.clear();
+        values.clear();
+        puts = 0;
+        encodedSize = 0;
+    }
+
+    /** Size of {@link #encode()}'s output. */
+    public long encodedSize() {
+        return encodedSize;
+    }
+
+    public byte[] encode() {
+        if (encodedSize > Integer.MAX_VALUE) throw new IllegalStateException("batch too large: " + encodedSize + " bytes");
+        ByteBuffer out = ByteBuffer.allocate((int) encodedSize).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] k = keys.get(i);
+            byte[] v = values.get(i);
+            out.put(Memtable.isTombstone(v) ? OP_DELETE : OP_PUT).putInt(k.length).putInt(v.length).put(k).put(v);
+        }
+        return out.array();
+    }
+
+    /** Parse the wire form; throws on anything malformed, so a bad batch is never half-applied. */
+    public static WriteBatch decode(ByteBuffer in) throws IOException {
+        ByteBuffer b = in.slice().order(ByteOrder.BIG_ENDIAN);
+        WriteBatch batch = new WriteBatch();
+        while (b.hasRemaining()) {
+            if (b.remaining() < OP_HEADER_SIZE) throw new IOException("truncated batch op at " + b.position());
+            byte op = b.get();
+            int kLen = b.getInt();
+            int vLen = b.getInt();
+            if (kLen < 0 || kLen > MAX_KEY_LEN || vLen < 0 || vLen > MAX_VAL_LEN || kLen + vLen > b.remaining()) {
+                throw new IOException("bad batch op lengths kLen=" + kLen + " vLen=" + vLen);
+            }
+            byte[] k = new byte[kLen];
+            b.get(k);
+            if (op == OP_PUT) {
+                byte[] v = new byte[vLen];
+                b.get(v);
+                batch.add(k, v);
+            } else if (op == OP_DELETE && vLen == 0) {
+                batch.add(k, Memtable.TOMBSTONE);
+            } else {
+                throw new IOException("bad batch op " + op);
+            }
+        }
+        return batch;
+    }
+
+    byte[] key(int i) {
+        return keys.get(i);
+    }
+
+    /** Value of op i; {@link Memtable#TOMBSTONE} for a delete. */
+    byte[] value(int i) {
+        return values.get(i);
+    }
+
+    private WriteBatch add(byte[] key, byte[] value) {
+        keys.add(key);
+        values.add(value);
+        if (!Memtable.isTombstone(value)) puts++;
+        encodedSize += OP_HEADER_SIZE + key.length + value.length;
+        return this;
+    }
+}
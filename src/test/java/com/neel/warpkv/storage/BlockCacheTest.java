@@ -0,0 +1,61 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+
+    private static Block block(int valueSize) throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        bb.add("k".getBytes(StandardCharsets.UTF_8), 1, new byte[valueSize]);
+        return new Block(ByteBuffer.wrap(bb.finish()), true, true);
+    }
+
+    @Test
+    void invalidateDropsOnlyThatFile() throws IOException {
+        BlockCache cache = new BlockCache(1 << 20);
+        Block b = block(100);
+        for (long off = 0; off < 50; off++) {
+            cache.put(1, off, b);
+            cache.put(2, off, b);
+        }
+        cache.get(1, 7);                                  // one of them protected
+        long perFile = cache.usedBytes() / 2;
+
+        cache.invalidateFile(1);
+        assertEquals(perFile, cache.usedBytes());
+        for (long off = 0; off < 50; off++) {
+            assertNull(cache.get(1, off));
+            assertSame(b, cache.get(2, off));
+        }
+        cache.invalidateFile(1);                          // nothing left to drop
+        cache.invalidateFile(3);                          // never cached
+        assertEquals(perFile, cache.usedBytes());
+    }
+
+    @Test
+    void evictionAndInvalidationKeepTheAccountingStraight() throws IOException {
+        BlockCache cache = new BlockCache(64 * 1024);     // 4 KiB a shard: constant eviction
+        Block small = block(100), big = block(1000);
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            long file = random.nextInt(8);
+            long off = random.nextInt(200);
+            switch (random.nextInt(10)) {
+                case 0 -> cache.invalidateFile(file);
+                case 1, 2, 3 -> cache.get(file, off);
+                default -> cache.put(file, off, random.nextBoolean() ? small : big);
+            }
+        }
+        assertTrue(cache.usedBytes() <= cache.capacity());
+        assertTrue(cache.evictions() > 0);
+        for (long file = 0; file < 8; file++) cache.invalidateFile(file);
+        assertEquals(0, cache.usedBytes(), "every block was reachable from its file's chain");
+    }
+}
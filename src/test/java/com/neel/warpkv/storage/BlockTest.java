@@ -0,0 +1,201 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockTest {
+
+    private static byte[] b(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String s(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** Sorted keys with a long shared prefix; only even numbers, so odd ones fall in gaps. */
+    private static List<String> keys(int n) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++) keys.add(String.format("user/profile/%05d", i * 2));
+        return keys;
+    }
+
+    /** Entry i gets value v<i> and seq i + 1. */
+    private static Block dataBlock(List<String> keys) throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        for (int i = 0; i < keys.size(); i++) bb.add(b(keys.get(i)), i + 1, b("v" + i));
+        return new Block(ByteBuffer.wrap(bb.finish()), true, true);
+    }
+
+    @Test
+    void everyKeyIsFoundAndGapsAreNot() throws IOException {
+        List<String> keys = keys(100);
+        Block block = dataBlock(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals("v" + i, s(block.get(b(keys.get(i)))), keys.get(i));
+        }
+        assertNull(block.get(b("user/profile/00001")));
+        assertNull(block.get(b("user/profile/00197")));
+        assertNull(block.get(b("a")));                    // before the first key
+        assertNull(block.get(b("user/profile/99999")));   // after the last
+        assertNull(block.get(b("user/profile/0000")));    // a proper prefix of the first key
+    }
+
+    @Test
+    void iteratesInOrderWithSequences() throws IOException {
+        List<String> keys = keys(40);
+        EntryIterator it = dataBlock(keys).iterator();
+        for (int i = 0; i < keys.size(); i++) {
+            assertTrue(it.next());
+            assertEquals(keys.get(i), s(it.key()));
+            assertEquals("v" + i, s(it.value()));
+            assertEquals(i + 1, it.seq());
+        }
+        assertFalse(it.next());
+    }
+
+    @Test
+    void seekLandsOnFirstKeyAtOrAfterTarget() throws IOException {
+        List<String> keys = keys(100); // several restart points
+        EntryIterator it = dataBlock(keys).iterator();
+
+        it.seek(b("user/profile/00100"));                 // exact, mid restart interval
+        assertTrue(it.next());
+        assertEquals("user/profile/00100", s(it.key()));
+
+        it.seek(b("user/profile/00033"));                 // in a gap, mid restart interval
+        assertTrue(it.next());
+        assertEquals("user/profile/00034", s(it.key()));
+        assertTrue(it.next());
+        assertEquals("user/profile/00036", s(it.key()));  // and keeps going from there
+
+        it.seek(b("user/profile/00064"));                 // entry 32: exactly a restart point
+        assertTrue(it.next());
+        assertEquals("user/profile/00064", s(it.key()));
+
+        it.seek(b("a"));                                  // backwards, before everything
+        assertTrue(it.next());
+        assertEquals(keys.get(0), s(it.key()));
+
+        it.seek(b("z"));                                  // past the end
+        assertFalse(it.next());
+    }
+
+    @Test
+    void restartKeysAreStoredInFullAndTheRestAreDeltas() throws IOException {
+        int n = 3 * BlockBuilder.RESTART_INTERVAL + 1;
+        List<String> keys = keys(n);
+        BlockBuilder bb = new BlockBuilder(true);
+        int keyBytes = 0;
+        for (int i = 0; i < n; i++) {
+            bb.add(b(keys.get(i)), i + 1, b("v"));
+            keyBytes += keys.get(i).length();
+        }
+        ByteBuffer raw = ByteBuffer.wrap(bb.finish());
+
+        int numRestarts = raw.getInt(raw.limit() - 4);
+        assertEquals(4, numRestarts);
+        int restartsStart = raw.limit() - 4 - 4 * numRestarts;
+        for (int r = 0; r < numRestarts; r++) {
+            ByteBuffer p = raw.duplicate().position(raw.getInt(restartsStart + 4 * r));
+            assertEquals(0, Varint.getInt(p), "restart " + r + " shares no prefix");
+            assertEquals(keys.get(r * BlockBuilder.RESTART_INTERVAL).length(), Varint.getInt(p));
+        }
+        // second entry (00002 after 00000): only the last digit is stored
+        ByteBuffer p = raw.duplicate();
+        skipEntry(p);
+        assertEquals("user/profile/0000".length(), Varint.getInt(p));
+        assertEquals(1, Varint.getInt(p));
+
+        assertTrue(restartsStart < keyBytes / 2, restartsStart + " bytes of entries for " + keyBytes + " key bytes");
+    }
+
+    /** Skips a tagged, sequenced entry. */
+    private static void skipEntry(ByteBuffer p) throws IOException {
+        Varint.getInt(p);
+        int unshared = Varint.getInt(p);
+        long valueLen = Varint.getLong(p) >>> 1;
+        Varint.getLong(p);
+        p.position(p.position() + unshared + (int) valueLen);
+    }
+
+    @Test
+    void tombstonesRoundTripInDataBlocks() throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        bb.add(b("a"), 1, b("1"));
+        bb.add(b("b"), 2, Memtable.TOMBSTONE);
+        bb.add(b("c"), 3, new byte[0]);                   // empty value, not a delete
+        Block block = new Block(ByteBuffer.wrap(bb.finish()), true, true);
+
+        assertTrue(Memtable.isTombstone(block.get(b("b"))));
+        byte[] empty = block.get(b("c"));
+        assertEquals(0, empty.length);
+        assertFalse(Memtable.isTombstone(empty));
+    }
+
+    @Test
+    void indexBlocksStorePlainValuesAndRejectTombstones() throws IOException {
+        BlockBuilder bb = new BlockBuilder(false);
+        bb.add(b("k1"), b("handle1"));
+        bb.add(b("k2"), b("handle2"));
+        assertThrows(IllegalArgumentException.class, () -> bb.add(b("k3"), Memtable.TOMBSTONE));
+
+        Block block = new Block(ByteBuffer.wrap(bb.finish()), false, false);
+        assertEquals("handle2", s(block.get(b("k2"))));
+        EntryIterator it = block.iterator();
+        assertTrue(it.next());
+        assertEquals(0, it.seq());
+    }
+
+    @Test
+    void emptyBlock() throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        assertTrue(bb.isEmpty());
+        Block block = new Block(ByteBuffer.wrap(bb.finish()), true, true);
+        assertNull(block.get(b("a")));
+        EntryIterator it = block.iterator();
+        assertFalse(it.next());
+        it.seek(b("a"));
+        assertFalse(it.next());
+    }
+
+    @Test
+    void resetStartsAFreshBlock() throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        bb.add(b("zzz"), 1, b("old"));
+        bb.finish();
+        bb.reset();
+        bb.add(b("aaa"), 2, b("new"));                    // would be out of order without the reset
+        assertEquals(bb.estimatedSize(), bb.finish().length);
+        bb.reset();
+        bb.add(b("aaa"), 2, b("new"));
+        Block block = new Block(ByteBuffer.wrap(bb.finish()), true, true);
+        assertEquals("new", s(block.get(b("aaa"))));
+        assertNull(block.get(b("zzz")));
+    }
+
+    @Test
+    void corruptTrailerIsAnIOException() {
+        assertThrows(IOException.class, () -> new Block(ByteBuffer.wrap(new byte[2]), true, true));
+        // restart count larger than the block
+        assertThrows(IOException.class, () -> new Block(ByteBuffer.wrap(new byte[] {0, 0, 0, 9}), true, true));
+    }
+
+    @Test
+    void corruptRestartOffsetIsAnIOException() throws IOException {
+        BlockBuilder bb = new BlockBuilder(true);
+        for (int i = 0; i < 20; i++) bb.add(b("k" + (char) ('a' + i)), i, b("v"));
+        byte[] raw = bb.finish();
+        int restartsStart = raw.length - 4 - 4 * 2;
+        raw[restartsStart + 4] = 0x7f;                    // second restart offset way past the entries
+        Block block = new Block(ByteBuffer.wrap(raw), true, true);
+        assertThrows(IOException.class, () -> block.get(b("kt")));
+    }
+}
@@ -0,0 +1,216 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompactionTest {
+
+    @TempDir
+    Path dir;
+
+    private KvStore store;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) store.close();
+    }
+
+    /** Background compaction off, so each test decides when compact() runs. */
+    private KvStore open(CompactionStyle style) throws IOException {
+        if (store != null) store.close();
+        store = new KvStore(dir, StoreOptions.defaults().compactionStyle(style).autoCompaction(false));
+        store.setFlushThreshold(Integer.MAX_VALUE);
+        return store;
+    }
+
+    private static String key(int i) {
+        return String.format("key%06d", i);
+    }
+
+    /** Puts keys [from, to) with value "<tag>:<i>" and flushes them into one table. */
+    private void flushRange(int from, int to, String tag) throws IOException {
+        for (int i = from; i < to; i++) store.put(key(i), tag + ":" + i, Durability.NONE);
+        store.flushToSstable();
+    }
+
+    private List<Path> sstFiles() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".sst")).sorted().toList();
+        }
+    }
+
+    private static List<String> entries(Scan scan) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (scan) {
+            while (scan.next()) out.add(scan.key() + "=" + scan.value());
+        }
+        return out;
+    }
+
+    // -------------------- size-tiered --------------------
+
+    @Test
+    void tieredMergesSimilarTablesAndNewestWins() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        for (int gen = 0; gen < 4; gen++) flushRange(gen * 50, 200 + gen * 50, "gen" + gen);
+        assertEquals(List.of(4), store.tablesPerLevel());
+
+        assertEquals(1, store.compact());
+        assertEquals(List.of(1), store.tablesPerLevel());
+        assertEquals(1, sstFiles().size(), "inputs are deleted once nothing holds them");
+
+        for (int i = 0; i < 350; i++) {
+            int gen = Math.min(3, i / 50);
+            assertEquals(Optional.of("gen" + gen + ":" + i), store.get(key(i)), key(i));
+        }
+
+        open(CompactionStyle.SIZE_TIERED);
+        assertEquals(List.of(1), store.tablesPerLevel());
+        assertEquals(Optional.of("gen3:349"), store.get(key(349)));
+        assertEquals(Optional.of("gen0:0"), store.get(key(0)));
+    }
+
+    @Test
+    void tieredNeedsEnoughTables() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        for (int gen = 0; gen < 3; gen++) flushRange(0, 100, "gen" + gen);
+        assertEquals(0, store.compact());
+        assertEquals(List.of(3), store.tablesPerLevel());
+    }
+
+    @Test
+    void tieredLeavesADifferentSizedTableAlone() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        String big = "x".repeat(200);
+        for (int i = 0; i < 10_000; i++) store.put(key(i), big, Durability.NONE); // a couple of MB
+        store.flushToSstable();
+        for (int gen = 0; gen < 4; gen++) flushRange(0, 10, "small" + gen);
+        List<Path> before = sstFiles();
+        Path bigFile = before.get(0);
+
+        assertEquals(1, store.compact());
+        assertEquals(List.of(2), store.tablesPerLevel());
+        assertTrue(sstFiles().contains(bigFile), "the big table is not an input");
+        assertEquals(Optional.of("small3:5"), store.get(key(5)));
+        assertEquals(Optional.of(big), store.get(key(50)));
+    }
+
+    @Test
+    void tieredCompactsInTheBackgroundAfterFlushes() throws Exception {
+        store = new KvStore(dir, StoreOptions.defaults().compactionStyle(CompactionStyle.SIZE_TIERED));
+        store.setFlushThreshold(Integer.MAX_VALUE);
+        for (int gen = 0; gen < 4; gen++) flushRange(0, 100, "gen" + gen);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!store.tablesPerLevel().equals(List.of(1)) && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(List.of(1), store.tablesPerLevel());
+        assertEquals(Optional.of("gen3:7"), store.get(key(7)));
+    }
+
+    @Test
+    void tieredOutputScansLikeItsInputs() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        for (int gen = 0; gen < 4; gen++) flushRange(gen * 10, 40 + gen * 10, "gen" + gen);
+        List<String> before = entries(store.scan((String) null, null, 0));
+        store.compact();
+        assertEquals(before, entries(store.scan((String) null, null, 0)));
+        assertEquals(70, before.size());
+    }
+
+    // -------------------- leveled --------------------
+
+    @Test
+    void leveledMovesL0IntoL1OnceItHasFourTables() throws IOException {
+        open(CompactionStyle.LEVELED);
+        for (int gen = 0; gen < 3; gen++) flushRange(gen * 50, 200 + gen * 50, "gen" + gen);
+        assertEquals(0, store.compact(), "below the L0 trigger");
+
+        flushRange(150, 350, "gen3");
+        assertEquals(1, store.compact());
+        assertEquals(List.of(0, 1), store.tablesPerLevel());
+        for (int i = 0; i < 350; i++) {
+            assertEquals(Optional.of("gen" + Math.min(3, i / 50) + ":" + i), store.get(key(i)), key(i));
+        }
+
+        open(CompactionStyle.LEVELED);
+        assertEquals(List.of(0, 1), store.tablesPerLevel(), "levels come back from the manifest");
+        assertEquals(Optional.of("gen0:0"), store.get(key(0)));
+    }
+
+    /** Opens every table file on disk and returns [firstKey, lastKey] pairs sorted by first key. */
+    private List<String[]> tableRanges() throws IOException {
+        List<String[]> ranges = new ArrayList<>();
+        for (Path p : sstFiles()) {
+            try (SstReader r = new SstReader(p)) {
+                ranges.add(new String[] {new String(r.firstKey(), StandardCharsets.UTF_8), new String(r.lastKey(), StandardCharsets.UTF_8), p.getFileName().toString()});
+            }
+        }
+        ranges.sort((a, b) -> a[0].compareTo(b[0]));
+        return ranges;
+    }
+
+    @Test
+    void leveledSplitsL1IntoNonOverlappingTables() throws IOException {
+        open(CompactionStyle.LEVELED);
+        String value = "v".repeat(1000);
+        for (int gen = 0; gen < 4; gen++) {
+            for (int i = gen; i < 6000; i += 4) store.put(key(i), value, Durability.NONE);  // ~6 MB, interleaved
+            store.flushToSstable();
+        }
+        store.compact();
+        List<Integer> levels = store.tablesPerLevel();
+        assertEquals(0, levels.get(0));
+        assertTrue(levels.get(1) >= 2, "output is cut into target-sized files: " + levels);
+
+        List<String[]> ranges = tableRanges();
+        assertEquals(levels.get(1), ranges.size());
+        for (int i = 1; i < ranges.size(); i++) {
+            assertTrue(ranges.get(i - 1)[1].compareTo(ranges.get(i)[0]) < 0,
+                    ranges.get(i - 1)[2] + " overlaps " + ranges.get(i)[2]);
+        }
+        assertEquals(key(0), ranges.get(0)[0]);
+        assertEquals(key(5999), ranges.get(ranges.size() - 1)[1]);
+    }
+
+    @Test
+    void leveledOnlyRewritesTheOverlappingL1Tables() throws IOException {
+        open(CompactionStyle.LEVELED);
+        String value = "v".repeat(1000);
+        for (int gen = 0; gen < 4; gen++) {
+            for (int i = gen; i < 6000; i += 4) store.put(key(i), value, Durability.NONE);
+            store.flushToSstable();
+        }
+        store.compact();
+        List<String[]> before = tableRanges();
+        String[] first = before.get(0);
+
+        // four small flushes, all inside the first L1 table's key range
+        for (int gen = 0; gen < 4; gen++) {
+            store.put(first[0], "new" + gen, Durability.NONE);
+            store.put(first[1], "new" + gen, Durability.NONE);
+            store.flushToSstable();
+        }
+        assertEquals(1, store.compact());
+
+        List<String> untouched = new ArrayList<>();
+        for (String[] r : before.subList(1, before.size())) untouched.add(r[2]);
+        List<String> after = new ArrayList<>();
+        for (String[] r : tableRanges()) after.add(r[2]);
+        assertTrue(after.containsAll(untouched), "tables outside the range keep their files: " + after);
+        assertFalse(after.contains(first[2]), "the overlapping table was rewritten");
+        assertEquals(Optional.of("new3"), store.get(first[0]));
+        assertEquals(Optional.of("new3"), store.get(first[1]));
+        assertEquals(Optional.of(value), store.get(key(5999)));
+    }
+}
@@ -0,0 +1,255 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KvStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private KvStore store;
+
+    @AfterEach
+    void closeStore() {
+        if (store != null) store.close();
+    }
+
+    private KvStore open(CompactionStyle style) throws IOException {
+        if (store != null) store.close();
+        store = new KvStore(dir, StoreOptions.defaults().compactionStyle(style).autoCompaction(false));
+        store.setFlushThreshold(Integer.MAX_VALUE);
+        return store;
+    }
+
+    private static List<String> keys(Scan scan) throws IOException {
+        List<String> out = new ArrayList<>();
+        try (scan) {
+            while (scan.next()) out.add(scan.key());
+        }
+        return out;
+    }
+
+    private long sstCount() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().endsWith(".sst")).count();
+        }
+    }
+
+    /** Number of tombstones in every table on disk. */
+    private int tombstonesOnDisk() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(dir)) {
+            files = s.filter(p -> p.getFileName().toString().endsWith(".sst")).toList();
+        }
+        int n = 0;
+        for (Path p : files) {
+            try (SstReader r = new SstReader(p)) {
+                EntryIterator it = r.iterator(false);
+                while (it.next()) if (Memtable.isTombstone(it.value())) n++;
+            }
+        }
+        return n;
+    }
+
+    // -------------------- deletes --------------------
+
+    @Test
+    void deleteInMemtableHidesFlushedValue() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.flushToSstable();
+        store.delete("a");
+        assertEquals(Optional.empty(), store.get("a"));
+        assertEquals(List.of("b"), keys(store.scan((String) null, null, 0)));
+    }
+
+    @Test
+    void tombstoneShadowsOlderTableAcrossFlushAndReopen() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.flushToSstable();
+        store.delete("a");
+        store.flushToSstable();
+        assertEquals(List.of(2), store.tablesPerLevel());
+        assertEquals(1, tombstonesOnDisk());
+        assertEquals(Optional.empty(), store.get("a"));
+
+        open(CompactionStyle.SIZE_TIERED);
+        assertEquals(Optional.empty(), store.get("a"));
+        assertEquals(Optional.of("2"), store.get("b"));
+        assertEquals(List.of("b"), keys(store.scan((String) null, null, 0)));
+    }
+
+    @Test
+    void tombstoneIsKeptWhileOlderTablesRemain() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        String big = "x".repeat(200);
+        for (int i = 0; i < 10_000; i++) store.put(String.format("k%05d", i), big, Durability.NONE);
+        store.flushToSstable();                           // a table too big to join the small ones' run
+        for (int gen = 0; gen < 4; gen++) {
+            store.put("other" + gen, "v");
+            if (gen == 2) store.delete("k00042");
+            store.flushToSstable();
+        }
+
+        assertEquals(1, store.compact());
+        assertEquals(List.of(2), store.tablesPerLevel());
+        assertEquals(1, tombstonesOnDisk(), "the big table below still has the key");
+        assertEquals(Optional.empty(), store.get("k00042"));
+        assertEquals(Optional.of(big), store.get("k00043"));
+    }
+
+    @Test
+    void tombstoneIsDroppedAtTheBottomLevel() throws IOException {
+        open(CompactionStyle.LEVELED);
+        for (int gen = 0; gen < 4; gen++) {
+            for (int i = 0; i < 100; i++) store.put("k" + i, "gen" + gen);
+            if (gen == 3) {
+                for (int i = 0; i < 100; i += 2) store.delete("k" + i);
+            }
+            store.flushToSstable();
+        }
+        assertEquals(50, tombstonesOnDisk());
+
+        assertEquals(1, store.compact());
+        assertEquals(List.of(0, 1), store.tablesPerLevel());
+        assertEquals(0, tombstonesOnDisk(), "nothing older is left for them to hide");
+        assertEquals(Optional.empty(), store.get("k10"));
+        assertEquals(Optional.of("gen3"), store.get("k11"));
+        assertEquals(50, keys(store.scan((String) null, null, 0)).size());
+    }
+
+    @Test
+    void deletesCountTowardTheFlushThreshold() throws Exception {
+        open(CompactionStyle.SIZE_TIERED);
+        store.setFlushThreshold(100);
+        for (int i = 0; i < 1000; i++) store.delete("never-written-" + i, Durability.NONE);
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (store.tablesPerLevel().get(0) == 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertTrue(store.tablesPerLevel().get(0) > 0, "tombstones alone should trigger flushes");
+    }
+
+    @Test
+    void batchDeletesShadowLikeSingleDeletes() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        store.put("a", "1");
+        store.put("b", "2");
+        store.flushToSstable();
+        store.write(new WriteBatch().delete("a").put("c", "3"));
+        store.flushToSstable();
+        assertEquals(List.of("b", "c"), keys(store.scan((String) null, null, 0)));
+    }
+
+    // -------------------- snapshots --------------------
+
+    @Test
+    void snapshotIgnoresLaterWrites() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        store.put("a", "1");
+        store.put("b", "1");
+        try (Snapshot snap = store.snapshot()) {
+            assertEquals(store.lastSequence(), snap.sequence());
+            store.put("a", "2");
+            store.delete("b");
+            store.put("c", "2");
+
+            assertEquals(Optional.of("1"), snap.get("a"));
+            assertEquals(Optional.of("1"), snap.get("b"));
+            assertEquals(Optional.empty(), snap.get("c"));
+            assertEquals(List.of("a", "b"), keys(snap.scan((String) null, null, 0)));
+        }
+        assertEquals(Optional.of("2"), store.get("a"));
+        assertEquals(Optional.empty(), store.get("b"));
+    }
+
+    @Test
+    void snapshotSurvivesFlushAndCompaction() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        for (int i = 0; i < 50; i++) store.put("k" + i, "old");
+        store.flushToSstable();
+        try (Snapshot snap = store.snapshot()) {
+            for (int gen = 0; gen < 3; gen++) {
+                for (int i = 0; i < 50; i++) store.put("k" + i, "new" + gen);
+                store.delete("k0");
+                store.flushToSstable();
+            }
+            assertEquals(1, store.compact());
+            assertEquals(List.of(1), store.tablesPerLevel());
+            assertTrue(sstCount() > 1, "compacted-away tables stay on disk while the snapshot reads them");
+
+            assertEquals(Optional.of("old"), snap.get("k0"));
+            assertEquals(Optional.of("old"), snap.get("k49"));
+            assertEquals(50, keys(snap.scan((String) null, null, 0)).size());
+        }
+        assertEquals(1, sstCount(), "released with the snapshot");
+        assertEquals(Optional.empty(), store.get("k0"));
+        assertEquals(Optional.of("new2"), store.get("k1"));
+    }
+
+    @Test
+    void scanOutlivesItsSnapshot() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        for (int i = 0; i < 10; i++) store.put("k" + i, "v");
+        store.flushToSstable();
+        Scan scan;
+        try (Snapshot snap = store.snapshot()) {
+            scan = snap.scan((String) null, null, 0);
+        }
+        for (int i = 0; i < 10; i++) store.put("k" + i, "later");
+        assertEquals(10, keys(scan).size());
+    }
+
+    @Test
+    void closedSnapshotRejectsReads() throws IOException {
+        open(CompactionStyle.SIZE_TIERED);
+        Snapshot snap = store.snapshot();
+        snap.close();
+        snap.close(); // idempotent
+        assertThrows(IllegalStateException.class, () -> snap.get("a"));
+        assertThrows(IllegalStateException.class, () -> snap.scan((String) null, null, 0));
+    }
+
+    @Test
+    void snapshotsNeverSeeHalfABatch() throws Exception {
+        open(CompactionStyle.SIZE_TIERED);
+        store.setFlushThreshold(500);                     // flushes happen while snapshots are taken
+        store.write(new WriteBatch().put("x", "0").put("y", "0"));
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 1; i <= 2000; i++) {
+                    store.write(new WriteBatch().put("x", "" + i).put("y", "" + i), Durability.NONE);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        int last = 0;
+        while (writer.isAlive()) {
+            try (Snapshot snap = store.snapshot()) {
+                String x = snap.get("x").orElseThrow();
+                assertEquals(x, snap.get("y").orElseThrow(), "x and y were written together");
+                int seen = Integer.parseInt(x);
+                assertTrue(seen >= last, "snapshots go forward: " + seen + " after " + last);
+                last = seen;
+                assertEquals(Optional.of(x), snap.get("x"), "repeated reads agree");
+            }
+        }
+        writer.join();
+        assertEquals(Optional.of("2000"), store.get("x"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Lz4Test {
+
+    private final Random random = new Random(42);
+
+    private static byte[] roundTrip(byte[] src) throws IOException {
+        byte[] compressed = Lz4.compress(src);
+        byte[] out = new byte[src.length];
+        Lz4.decompress(ByteBuffer.wrap(compressed), out);
+        assertArrayEquals(src, out);
+        return compressed;
+    }
+
+    /** Text-like bytes: words from a small vocabulary, so there are matches at many distances. */
+    private byte[] text(int n) {
+        String[] words = {"warp", "kv", "store", "block", "table", "level", "key", "value", "compaction", "\n"};
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < n) sb.append(words[random.nextInt(words.length)]).append(' ');
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.UTF_8), n);
+    }
+
+    private byte[] randomBytes(int n) {
+        byte[] b = new byte[n];
+        random.nextBytes(b);
+        return b;
+    }
+
+    @Test
+    void roundTripsSmallAndBoundarySizes() throws IOException {
+        for (int n = 0; n <= 40; n++) {
+            roundTrip(randomBytes(n));
+            roundTrip(new byte[n]);
+            roundTrip(text(n));
+        }
+        // literal and match lengths right around the 15 / 15 + 255 overflow thresholds
+        for (int n : new int[] {14 + 5, 15 + 5, 16 + 5, 269, 270, 271, 524, 525, 526}) {
+            roundTrip(randomBytes(n));
+            roundTrip(new byte[n]);
+        }
+    }
+
+    @Test
+    void roundTripsRandomizedInputs() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            int n = random.nextInt(70_000);
+            byte[] src = switch (i % 3) {
+                case 0 -> randomBytes(n);
+                case 1 -> text(n);
+                default -> mixed(n);
+            };
+            roundTrip(src);
+        }
+    }
+
+    /** Runs of random bytes, copies of earlier ranges (some far back, some overlapping) and zeros. */
+    private byte[] mixed(int n) {
+        byte[] b = new byte[n];
+        int at = 0;
+        while (at < n) {
+            int len = Math.min(n - at, 1 + random.nextInt(300));
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    byte[] r = randomBytes(len);
+                    System.arraycopy(r, 0, b, at, len);
+                }
+                case 1 -> {
+                    if (at == 0) break;
+                    int from = random.nextInt(at);
+                    for (int i = 0; i < len; i++) b[at + i] = b[from + i]; // may overlap, like an lz4 run
+                }
+                default -> { } // zeros
+            }
+            at += len;
+        }
+        return b;
+    }
+
+    @Test
+    void incompressibleInputGrowsOnlyByTheBound() throws IOException {
+        for (int n : new int[] {1, 100, 4096, 65_536, 1 << 20}) {
+            byte[] compressed = roundTrip(randomBytes(n));
+            assertTrue(compressed.length <= n + n / 255 + 16, n + " -> " + compressed.length);
+        }
+    }
+
+    @Test
+    void repetitiveInputCompressesHard() throws IOException {
+        assertTrue(roundTrip(new byte[1 << 20]).length < 5000);     // one long run: many 255 length bytes
+        byte[] pattern = new byte[1 << 16];
+        for (int i = 0; i < pattern.length; i++) pattern[i] = (byte) "abc".charAt(i % 3); // offset-3 overlapping copies
+        assertTrue(roundTrip(pattern).length < 400);
+        byte[] text = text(64 * 1024);
+        assertTrue(roundTrip(text).length < text.length / 2);
+        // repeats further back than the 64 KiB window must still round trip
+        byte[] block = randomBytes(70_000);
+        byte[] twice = Arrays.copyOf(block, 140_000);
+        System.arraycopy(block, 0, twice, 70_000, 70_000);
+        roundTrip(twice);
+    }
+
+    @Test
+    void truncatedInputIsAnIOException() throws IOException {
+        for (byte[] src : new byte[][] {text(5000), randomBytes(5000), new byte[5000], mixed(5000)}) {
+            byte[] compressed = Lz4.compress(src);
+            for (int cut = 0; cut < compressed.length; cut++) {
+                ByteBuffer in = ByteBuffer.wrap(compressed, 0, cut);
+                byte[] out = new byte[src.length];
+                assertThrows(IOException.class, () -> Lz4.decompress(in, out), "cut at " + cut);
+            }
+        }
+    }
+
+    @Test
+    void wrongOutputLengthIsAnIOException() {
+        byte[] src = text(1000);
+        byte[] compressed = Lz4.compress(src);
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(compressed), new byte[999]));
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(compressed), new byte[1001]));
+    }
+
+    @Test
+    void corruptInputIsAnIOExceptionOrWrongBytes() throws IOException {
+        for (int i = 0; i < 2000; i++) {
+            byte[] src = i % 2 == 0 ? text(2000) : mixed(2000);
+            byte[] compressed = Lz4.compress(src);
+            int flips = 1 + random.nextInt(4);
+            for (int f = 0; f < flips; f++) compressed[random.nextInt(compressed.length)] ^= (byte) (1 + random.nextInt(255));
+            byte[] out = new byte[src.length];
+            try {
+                Lz4.decompress(ByteBuffer.wrap(compressed), out);
+            } catch (IOException expected) {
+                // anything but IOException (e.g. an index out of bounds) fails the test
+            }
+        }
+    }
+
+    @Test
+    void hostileLengthsAreAnIOException() {
+        // a match length of Integer.MAX_VALUE before the implicit + 4
+        byte[] huge = new byte[1 + 1 + 2 + 8_421_504 + 1];
+        huge[0] = 0x1F;                              // 1 literal, match nibble 15
+        huge[1] = 'a';
+        huge[2] = 1;                                 // offset 1
+        Arrays.fill(huge, 4, huge.length, (byte) 255);
+        huge[huge.length - 1] = 112;                 // 15 + 255 * 8421504 + 112 = MAX_VALUE, then + 4 wraps
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(huge), new byte[16]));
+
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(new byte[] {0x10, 'a', 0, 0}), new byte[8]),
+                "zero offset");
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(new byte[] {0x10, 'a', 2, 0}), new byte[8]),
+                "offset before the start of the output");
+        assertThrows(IOException.class, () -> Lz4.decompress(ByteBuffer.wrap(new byte[0]), new byte[0]), "empty input");
+    }
+}
@@ -0,0 +1,354 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManifestTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] b(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static TableMeta meta(String name, long maxSeq) {
+        return new TableMeta(name, 1000 + maxSeq, 4, 10, b("a" + name), b("z" + name), maxSeq);
+    }
+
+    private Manifest reload() throws IOException {
+        Manifest m = new Manifest(dir);
+        assertTrue(m.load());
+        return m;
+    }
+
+    private Path file() {
+        return dir.resolve("MANIFEST");
+    }
+
+    private static void assertMeta(TableMeta expected, TableMeta actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.fileSize(), actual.fileSize());
+        assertEquals(expected.formatVersion(), actual.formatVersion());
+        assertEquals(expected.entryCount(), actual.entryCount());
+        assertArrayEquals(expected.firstKey(), actual.firstKey());
+        assertArrayEquals(expected.lastKey(), actual.lastKey());
+        assertEquals(expected.maxSequence(), actual.maxSequence());
+    }
+
+    /** Three edits: a flush, a second flush, then a compaction replacing both. */
+    private Manifest logThreeEdits() throws IOException {
+        Manifest m = new Manifest(dir);
+        assertFalse(m.load(), "no manifest yet");
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_1.sst", 10)).lastSequence(10));
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_2.sst", 20)).lastSequence(20));
+        m.logEdit(new VersionEdit().removeTable("sst_1.sst").removeTable("sst_2.sst")
+                .addTable(1, meta("sst_2-1.sst", 20)));
+        return m;
+    }
+
+    // -------------------- replay --------------------
+
+    @Test
+    void editsReplayInOrder() throws IOException {
+        logThreeEdits();
+        Manifest m = reload();
+        Map<String, VersionEdit.Table> live = m.liveTables();
+        assertEquals(List.of("sst_2-1.sst"), List.copyOf(live.keySet()));
+        VersionEdit.Table t = live.get("sst_2-1.sst");
+        assertEquals(1, t.level());
+        assertMeta(meta("sst_2-1.sst", 20), t.meta());
+        assertEquals(20, m.lastSequence());
+        assertFalse(m.needsRewrite());
+    }
+
+    @Test
+    void removeThenAddReplacesATableInOneEdit() throws IOException {
+        Manifest m = new Manifest(dir);
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_1.sst", 1)));
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_2.sst", 2)));
+        // what an upgrade or a level move logs
+        m.logEdit(new VersionEdit().removeTable("sst_1.sst").addTable(0, meta("sst_1-1.sst", 1)));
+        m.logEdit(new VersionEdit().removeTable("sst_2.sst").addTable(2, meta("sst_2.sst", 2)));
+
+        Map<String, VersionEdit.Table> live = reload().liveTables();
+        assertEquals(List.of("sst_1-1.sst", "sst_2.sst"), List.copyOf(live.keySet()));
+        assertEquals(2, live.get("sst_2.sst").level());
+    }
+
+    @Test
+    void manyEditsAreFoldedIntoASnapshot() throws IOException {
+        Manifest m = new Manifest(dir);
+        for (int i = 0; i < 2500; i++) {
+            m.logEdit(new VersionEdit().addTable(0, meta("sst_" + i + ".sst", i)).lastSequence(i));
+            if (i > 0) m.logEdit(new VersionEdit().removeTable("sst_" + (i - 1) + ".sst"));
+        }
+        assertTrue(Files.size(file()) < 50_000, "rewritten, not 5000 edits long: " + Files.size(file()));
+        m = reload();
+        assertEquals(List.of("sst_2499.sst"), List.copyOf(m.liveTables().keySet()));
+        assertEquals(2499, m.lastSequence());
+    }
+
+    @Test
+    void tableMetaRoundTrips() throws IOException {
+        TableMeta[] metas = {
+                meta("sst_1.sst", 5),
+                new TableMeta("empty.sst", 64, 4, 0, null, null, 0),        // no key range to store
+                new TableMeta("legacy.sst", 4096, 3, -1, null, null, 0),    // count unknown
+        };
+        for (TableMeta t : metas) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            t.encode(out);
+            ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+            assertMeta(t, TableMeta.decode(in));
+            assertFalse(in.hasRemaining());
+        }
+    }
+
+    // -------------------- damage --------------------
+
+    /** End offset of each record; the first is the (empty) snapshot the first append writes. */
+    private long[] recordEnds() throws IOException {
+        ByteBuffer raw = ByteBuffer.wrap(Files.readAllBytes(file()));
+        List<Long> ends = new ArrayList<>();
+        int pos = 5; // "WKMF" + version
+        while (pos < raw.limit()) {
+            pos += 8 + raw.getInt(pos);
+            ends.add((long) pos);
+        }
+        return ends.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Test
+    void tornLastRecordIsTruncatedAway() throws IOException {
+        logThreeEdits();
+        long[] ends = recordEnds();
+        assertEquals(4, ends.length);
+        try (FileChannel ch = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            ch.truncate(ends[3] - 3);
+        }
+
+        Manifest m = reload();
+        assertEquals(List.of("sst_1.sst", "sst_2.sst"), List.copyOf(m.liveTables().keySet()));
+        assertEquals(ends[2], Files.size(file()));
+
+        // the next append lines up after the last good record
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_3.sst", 30)));
+        assertEquals(List.of("sst_1.sst", "sst_2.sst", "sst_3.sst"), List.copyOf(reload().liveTables().keySet()));
+    }
+
+    @Test
+    void checksumMismatchMidLogFailsLoad() throws IOException {
+        logThreeEdits();
+        long[] ends = recordEnds();
+        byte[] raw = Files.readAllBytes(file());
+        raw[(int) ends[2] - 2] ^= 1;                      // inside the second edit's body
+        Files.write(file(), raw);
+
+        assertThrows(IOException.class, () -> new Manifest(dir).load(), "the third edit is intact");
+        assertArrayEquals(raw, Files.readAllBytes(file()), "nothing is cut off");
+    }
+
+    @Test
+    void damagedLengthMidLogFailsLoad() throws IOException {
+        logThreeEdits();
+        long[] ends = recordEnds();
+        byte[] raw = Files.readAllBytes(file());
+        raw[(int) ends[0] + 3] ^= 0x40;                   // the first edit's length: can't find the next record from it
+        Files.write(file(), raw);
+
+        assertThrows(IOException.class, () -> new Manifest(dir).load());
+        assertArrayEquals(raw, Files.readAllBytes(file()));
+    }
+
+    @Test
+    void checksumMismatchInTheLastRecordIsTruncated() throws IOException {
+        logThreeEdits();
+        long[] ends = recordEnds();
+        byte[] raw = Files.readAllBytes(file());
+        raw[(int) ends[3] - 2] ^= 1;
+        Files.write(file(), raw);
+
+        Manifest m = reload();
+        assertTrue(m.wasRepaired());
+        assertEquals(List.of("sst_1.sst", "sst_2.sst"), List.copyOf(m.liveTables().keySet()));
+        assertEquals(ends[2], Files.size(file()));
+    }
+
+    @Test
+    void tornHeaderAndOversizedLengthAreTruncated() throws IOException {
+        logThreeEdits();
+        long good = Files.size(file());
+        Files.write(file(), new byte[] {0, 0, 0}, StandardOpenOption.APPEND);        // less than a record header
+        assertEquals(1, reload().liveTables().size());
+        assertEquals(good, Files.size(file()));
+
+        Files.write(file(), new byte[] {0x7f, 0, 0, 0, 0, 0, 0, 0, 1}, StandardOpenOption.APPEND); // 2 GB "edit"
+        assertEquals(1, reload().liveTables().size());
+        assertEquals(good, Files.size(file()));
+    }
+
+    @Test
+    void unsupportedVersionFailsLoad() throws IOException {
+        logThreeEdits();
+        byte[] raw = Files.readAllBytes(file());
+        raw[4] = 9;
+        Files.write(file(), raw);
+        assertThrows(IOException.class, () -> new Manifest(dir).load());
+    }
+
+    // -------------------- older formats --------------------
+
+    @Test
+    void textManifestLoadsAndAsksForARewrite() throws IOException {
+        Files.writeString(file(), "# warpkv manifest v2\n+0:sst_1.sst +0:sst_2.sst\n-sst_1.sst +1:sst_3.sst\n+0:sst_torn");
+        Manifest m = new Manifest(dir);
+        assertTrue(m.load());
+        assertTrue(m.needsRewrite());
+        Map<String, VersionEdit.Table> live = m.liveTables();
+        assertEquals(List.of("sst_2.sst", "sst_3.sst"), List.copyOf(live.keySet()));
+        assertNull(live.get("sst_3.sst").meta(), "known only by name");
+        assertEquals(1, live.get("sst_3.sst").level());
+
+        m.logEdit(new VersionEdit().addTable(0, meta("sst_4.sst", 4)));   // rewrites in the binary format first
+        m = reload();
+        assertFalse(m.needsRewrite());
+        assertEquals(List.of("sst_2.sst", "sst_3.sst", "sst_4.sst"), List.copyOf(m.liveTables().keySet()));
+    }
+
+    @Test
+    void plainFileListIsNotAuthoritative() throws IOException {
+        Files.writeString(file(), "sst_1.sst\nsst_2.sst\n");
+        assertFalse(new Manifest(dir).load());
+    }
+
+    // -------------------- lazy open --------------------
+
+    @Test
+    void readerFromMetaDoesNotTouchTheFileUntilRead() throws IOException {
+        Path missing = dir.resolve("sst_1.sst");
+        TableMeta m = meta("sst_1.sst", 7);
+        try (SstReader r = new SstReader(missing, m, SstReader.ReadMode.CHANNEL, null, ChecksumVerification.ALWAYS)) {
+            assertEquals(m.fileSize(), r.fileSize());
+            assertEquals(10, r.entryCount());
+            assertArrayEquals(b("asst_1.sst"), r.firstKey());
+            assertEquals(7, r.maxSequence());
+            assertThrows(IOException.class, () -> r.get("a"), "first read opens the (missing) file");
+        }
+    }
+
+    @Test
+    void readerFromStaleMetaRejectsTheFile() throws IOException {
+        Path p = dir.resolve("t.sst");
+        TableMeta real;
+        try (TableBuilder tb = new TableBuilder(p, TableBuilder.DEFAULT_BLOCK_SIZE, 2, Compression.NONE)) {
+            tb.add(b("a"), 1, b("1"));
+            tb.add(b("b"), 2, b("2"));
+            tb.finish();
+        }
+        try (SstReader r = new SstReader(p)) {
+            real = r.meta();
+        }
+        try (SstReader r = new SstReader(p, real, SstReader.ReadMode.CHANNEL, null, ChecksumVerification.ALWAYS)) {
+            assertEquals(Optional.of("2"), r.get("b").map(v -> new String(v, StandardCharsets.UTF_8)));
+        }
+        TableMeta stale = new TableMeta(real.name(), real.fileSize() + 1, real.formatVersion(), real.entryCount(),
+                real.firstKey(), real.lastKey(), real.maxSequence());
+        try (SstReader r = new SstReader(p, stale, SstReader.ReadMode.CHANNEL, null, ChecksumVerification.ALWAYS)) {
+            assertThrows(IOException.class, () -> r.get("b"));
+        }
+    }
+
+    private List<String> sstNames() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.map(p -> p.getFileName().toString()).filter(n -> n.endsWith(".sst")).sorted().toList();
+        }
+    }
+
+    @Test
+    void storeReopensFromTheManifestWithoutOpeningTables() throws IOException {
+        KvStore store = new KvStore(dir, StoreOptions.defaults().autoCompaction(false));
+        store.setFlushThreshold(Integer.MAX_VALUE);
+        store.put("a", "1");
+        store.flushToSstable();
+        store.put("b", "2");
+        store.flushToSstable();
+        store.close();
+        List<String> tables = sstNames();
+        assertEquals(2, tables.size());
+
+        // wreck the older table's contents (same size): a lazy open won't notice until it's read
+        Path older = dir.resolve(tables.get(0));
+        Files.write(older, new byte[(int) Files.size(older)]);
+        Files.writeString(dir.resolve("sst_1.sst"), "left by a crashed flush");
+
+        store = new KvStore(dir, StoreOptions.defaults().autoCompaction(false));
+        try {
+            assertEquals(List.of(2), store.tablesPerLevel());
+            assertEquals(tables, sstNames(), "the unrecorded table is removed");
+            assertEquals(Optional.of("2"), store.get("b"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private KvStore storeWithThreeTables() throws IOException {
+        KvStore store = new KvStore(dir, StoreOptions.defaults().autoCompaction(false));
+        store.setFlushThreshold(Integer.MAX_VALUE);
+        for (String k : List.of("a", "b", "c")) {
+            store.put(k, k + "1");
+            store.flushToSstable();
+        }
+        return store;
+    }
+
+    @Test
+    void storeWontOpenOverAManifestDamagedMidLog() throws IOException {
+        storeWithThreeTables().close();
+        List<String> tables = sstNames();
+        assertEquals(3, tables.size());
+        long[] ends = recordEnds();
+        byte[] raw = Files.readAllBytes(file());
+        raw[(int) ends[0] + 3] ^= 0x40;
+        Files.write(file(), raw);
+
+        assertThrows(IOException.class, () -> new KvStore(dir, StoreOptions.defaults().autoCompaction(false)));
+        assertEquals(tables, sstNames(), "no table is deleted");
+        assertArrayEquals(raw, Files.readAllBytes(file()));
+    }
+
+    @Test
+    void storeKeepsTablesATornEditListed() throws IOException {
+        storeWithThreeTables().close();
+        List<String> tables = sstNames();
+        try (FileChannel ch = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 3);                   // tears the edit that added the last table
+        }
+
+        KvStore store = new KvStore(dir, StoreOptions.defaults().autoCompaction(false));
+        try {
+            assertEquals(List.of(2), store.tablesPerLevel());
+            assertEquals(tables.subList(0, 2), sstNames());
+            assertTrue(Files.exists(dir.resolve(tables.get(2) + ".unrecorded")), "moved aside, not deleted");
+            assertEquals(Optional.of("a1"), store.get("a"));
+        } finally {
+            store.close();
+        }
+    }
+}
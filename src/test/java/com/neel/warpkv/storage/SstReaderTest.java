@@ -0,0 +1,108 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SstReaderTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] b(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Keys where String order and byte order disagree (U+1F600 vs U+FFFD), plus plain ones. */
+    private static Map<String, String> data() {
+        Map<String, String> m = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            for (String c : List.of("", "\uFFFD", "\uD83D\uDE00", "\u00E9", "a")) {
+                m.put("p" + c + i, "v" + c + i);
+            }
+        }
+        return m;
+    }
+
+    /** A v3 table the way the original SstWriter laid it out: sorted by String, not bytes. */
+    private Path writeStringOrderedV3(Map<String, String> data) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.write(new byte[SstWriter.HEADER_SIZE]);
+        List<byte[]> indexKeys = new ArrayList<>();
+        List<Integer> indexOffsets = new ArrayList<>();
+        BloomFilter bloom = new BloomFilter(Math.max(1024, data.size() * 10), 7);
+        int i = 0;
+        for (var e : new TreeMap<>(data).entrySet()) {
+            byte[] k = b(e.getKey()), v = b(e.getValue());
+            if (i++ % SstWriter.INDEX_SPAN == 0) {
+                indexKeys.add(k);
+                indexOffsets.add(out.size());
+            }
+            bloom.add(k);
+            out.writeInt(k.length);
+            out.writeInt(v.length);
+            out.write(k);
+            out.write(v);
+        }
+        long indexOffset = out.size();
+        out.writeInt(indexKeys.size());
+        for (int j = 0; j < indexKeys.size(); j++) {
+            out.writeInt(indexKeys.get(j).length);
+            out.write(indexKeys.get(j));
+            out.writeLong(indexOffsets.get(j));
+        }
+        long bloomOffset = out.size();
+        out.write(bloom.toBytes());
+        out.write(SstWriter.MAGIC3);
+        byte[] raw = buf.toByteArray();
+        ByteBuffer.wrap(raw).putInt(data.size()).putLong(indexOffset).putLong(bloomOffset);
+        Path p = dir.resolve("string-ordered.sst");
+        Files.write(p, raw);
+        return p;
+    }
+
+    private static void assertFindsEverything(Path p, Map<String, String> data) throws IOException {
+        for (SstReader.ReadMode mode : SstReader.ReadMode.values()) {
+            try (SstReader r = new SstReader(p, mode, null, ChecksumVerification.ALWAYS)) {
+                assertEquals(3, r.formatVersion());
+                for (var e : data.entrySet()) {
+                    assertEquals(Optional.of(e.getValue()), r.get(e.getKey()).map(v -> new String(v, StandardCharsets.UTF_8)),
+                            e.getKey() + " (" + mode + ")");
+                }
+                assertEquals(Optional.empty(), r.get("p\uD83D\uDE00" + 100));
+                assertEquals(Optional.empty(), r.get("p\uFFFD" + 100));
+                assertEquals(Optional.empty(), r.get("pa100"));
+            }
+        }
+    }
+
+    @Test
+    void v3SortedByStringFindsEveryKey() throws IOException {
+        Map<String, String> data = data();
+        assertFindsEverything(writeStringOrderedV3(data), data);
+    }
+
+    @Test
+    void v3SortedByBytesFindsEveryKey() throws IOException {
+        Map<String, String> data = data();
+        Map<byte[], byte[]> raw = new HashMap<>();
+        data.forEach((k, v) -> raw.put(b(k), b(v)));
+        assertFindsEverything(SstWriter.write(dir, "byte-ordered.sst", raw), data);
+    }
+}
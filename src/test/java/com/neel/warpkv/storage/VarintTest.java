@@ -0,0 +1,62 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VarintTest {
+
+    private static byte[] encode(long v) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.put(out, v);
+        return out.toByteArray();
+    }
+
+    @Test
+    void roundTripsBoundaryValues() throws IOException {
+        long[] values = {0, 1, 127, 128, 16_383, 16_384, 1L << 21, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE, -1};
+        int[] sizes = {1, 1, 1, 2, 2, 3, 4, 5, 6, 9, 10};
+        for (int i = 0; i < values.length; i++) {
+            byte[] enc = encode(values[i]);
+            assertEquals(sizes[i], enc.length, "size of " + values[i]);
+            ByteBuffer buf = ByteBuffer.wrap(enc);
+            assertEquals(values[i], Varint.getLong(buf));
+            assertFalse(buf.hasRemaining());
+        }
+    }
+
+    @Test
+    void readsConsecutiveValues() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i += 7) Varint.put(out, (long) i * i * i);
+        ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+        for (int i = 0; i < 1000; i += 7) assertEquals((long) i * i * i, Varint.getLong(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    void truncatedVarintIsAnIOException() {
+        byte[] enc = encode(1L << 40);
+        ByteBuffer buf = ByteBuffer.wrap(enc, 0, enc.length - 1);
+        assertThrows(IOException.class, () -> Varint.getLong(buf));
+    }
+
+    @Test
+    void overlongVarintIsAnIOException() {
+        byte[] enc = new byte[11];
+        Arrays.fill(enc, (byte) 0x80);
+        assertThrows(IOException.class, () -> Varint.getLong(ByteBuffer.wrap(enc)));
+    }
+
+    @Test
+    void getIntRejectsValuesOutsideIntRange() throws IOException {
+        assertEquals(Integer.MAX_VALUE, Varint.getInt(ByteBuffer.wrap(encode(Integer.MAX_VALUE))));
+        assertThrows(IOException.class, () -> Varint.getInt(ByteBuffer.wrap(encode(Integer.MAX_VALUE + 1L))));
+        assertThrows(IOException.class, () -> Varint.getInt(ByteBuffer.wrap(encode(-1))));
+    }
+}
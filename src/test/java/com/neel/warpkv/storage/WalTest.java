@@ -0,0 +1,187 @@
+package com.neel.warpkv.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WalTest {
+
+    @TempDir
+    Path dir;
+
+    /** One replayed record; value null for a delete. */
+    record Rec(String key, long seq, String value) {}
+
+    private static byte[] b(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private List<Rec> replay() throws IOException {
+        List<Rec> out = new ArrayList<>();
+        try (Wal wal = new Wal(dir)) {
+            wal.replay(0, (k, seq, v) -> out.add(new Rec(new String(k, StandardCharsets.UTF_8), seq,
+                    Memtable.isTombstone(v) ? null : new String(v, StandardCharsets.UTF_8))));
+        }
+        return out;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(p -> p.getFileName().toString().startsWith("wal_")).sorted().toList();
+        }
+    }
+
+    private static void flipByte(Path file, long at) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) at] ^= 0x5a;
+        Files.write(file, bytes);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Durability.class)
+    void replaysWhatEachDurabilityLogged(Durability durability) throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            wal.appendPut(1, b("a"), b("1"), durability);
+            wal.appendPut(2, b("b"), b("2"), durability);
+            wal.appendDelete(3, b("a"), durability);
+        }
+        List<Rec> expected = durability == Durability.NONE ? List.of() : List.of(
+                new Rec("a", 1, "1"), new Rec("b", 2, "2"), new Rec("a", 3, null));
+        assertEquals(expected, replay());
+    }
+
+    @Test
+    void asyncRecordsAreOnDiskAfterSync() throws IOException {
+        Wal wal = new Wal(dir, 60_000); // no background sync during the test
+        wal.appendPut(1, b("k"), b("v"), Durability.ASYNC);
+        wal.sync();
+        // read it back without closing the writer (close would sync anyway)
+        List<Rec> out = new ArrayList<>();
+        try (Wal reader = new Wal(dir)) {
+            reader.replay(0, (k, seq, v) -> out.add(new Rec(new String(k, StandardCharsets.UTF_8), seq, null)));
+        }
+        wal.close();
+        assertEquals(List.of(new Rec("k", 1, null)), out);
+    }
+
+    @Test
+    void batchReplaysWithConsecutiveSequences() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            wal.appendBatch(10, new WriteBatch().put("x", "1").delete("y").put("z", "3"), Durability.FSYNC);
+        }
+        assertEquals(List.of(new Rec("x", 10, "1"), new Rec("y", 11, null), new Rec("z", 12, "3")), replay());
+    }
+
+    @Test
+    void replaysSegmentsInOrder() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            wal.appendPut(1, b("a"), b("1"));
+            wal.rotate();
+            wal.appendPut(2, b("b"), b("2"));
+        }
+        assertEquals(2, segments().size());
+        assertEquals(List.of(new Rec("a", 1, "1"), new Rec("b", 2, "2")), replay());
+    }
+
+    @Test
+    void tornFinalRecordIsCutOff() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            for (int i = 1; i <= 5; i++) wal.appendPut(i, b("k" + i), b("value" + i));
+        }
+        Path seg = segments().get(0);
+        long full = Files.size(seg);
+        long recordSize = full / 5;
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+            ch.truncate(full - 3);
+        }
+
+        List<Rec> got = replay();
+        assertEquals(4, got.size());
+        assertEquals(new Rec("k4", 4, "value4"), got.get(3));
+        assertEquals(4 * recordSize, Files.size(seg), "torn tail should be truncated away");
+
+        // later writes go to a new segment and replay after the survivors
+        try (Wal wal = new Wal(dir)) {
+            wal.appendPut(6, b("k6"), b("value6"));
+        }
+        got = replay();
+        assertEquals(5, got.size());
+        assertEquals(6, got.get(4).seq());
+    }
+
+    @Test
+    void tornSegmentFollowedByEmptyOnesIsStillTheTail() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            for (int i = 1; i <= 3; i++) wal.appendPut(i, b("k" + i), b("value" + i));
+        }
+        Path seg = segments().get(0);
+        long full = Files.size(seg);
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.WRITE)) {
+            ch.truncate(full - 3);
+        }
+        new Wal(dir).close();                             // a startup that died before replay
+        Files.createFile(dir.resolve("wal_000005.log"));  // ...and an older build's leftover
+        assertEquals(3, segments().size());
+
+        assertEquals(2, replay().size());
+        assertEquals(full / 3 * 2, Files.size(seg));
+        assertEquals(2, replay().size(), "and again on the next start");
+    }
+
+    @Test
+    void corruptRecordInNewestSegmentIsTruncated() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            for (int i = 1; i <= 4; i++) wal.appendPut(i, b("k" + i), b("v" + i));
+        }
+        Path seg = segments().get(0);
+        long recordSize = Files.size(seg) / 4;
+        flipByte(seg, 2 * recordSize + recordSize - 1); // last value byte of record 3
+
+        assertEquals(2, replay().size());
+        assertEquals(2 * recordSize, Files.size(seg));
+    }
+
+    @Test
+    void corruptRecordInOlderSegmentFailsReplay() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            for (int i = 1; i <= 4; i++) wal.appendPut(i, b("k" + i), b("v" + i));
+            wal.rotate();
+            wal.appendPut(5, b("k5"), b("v5"));
+        }
+        Path older = segments().get(0);
+        long size = Files.size(older);
+        flipByte(older, size / 2);
+
+        IOException e = assertThrows(IOException.class, this::replay);
+        assertTrue(e.getMessage().contains(older.getFileName().toString()), e.getMessage());
+        assertEquals(size, Files.size(older), "an older segment must not be truncated");
+    }
+
+    @Test
+    void checksumsCanBeSkipped() throws IOException {
+        try (Wal wal = new Wal(dir)) {
+            wal.appendPut(1, b("k"), b("value"));
+        }
+        Path seg = segments().get(0);
+        flipByte(seg, Files.size(seg) - 1); // a value byte: lengths still sane
+
+        List<Rec> out = new ArrayList<>();
+        try (Wal wal = new Wal(dir)) {
+            wal.replay(0, false, (k, seq, v) -> out.add(new Rec(new String(k, StandardCharsets.UTF_8), seq, null)));
+        }
+        assertEquals(List.of(new Rec("k", 1, null)), out);
+    }
+}